@@ -0,0 +1,447 @@
+import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/**
+ * BatchProcessor is a command-line entry point that computes products for many GridFloat
+ * datasets without opening a window, so they can be made on a headless server. For each
+ * dataset it writes:
+ *
+ *   name.stats.txt    - The extent, cell size, and elevation statistics and percentiles.
+ *   name.contours.txt - One contour polyline per line: elevation, then the longitude and
+ *                       latitude of each vertex. A closed line ends at its first vertex.
+ *                       With -format geojson or binary, name.contours.geojson or
+ *                       name.contours.bin instead, as written by ContourExporter.
+ *   name.relief.png   - A shaded relief image, colored as TerrainVis colors its mesh.
+ *
+ * Datasets are processed concurrently on a fixed pool of threads, and a report of the time
+ * spent on each step of each dataset is printed at the end. Arguments name datasets by a file
+ * in them (prefix.hdr, prefix.flt.gz, prefix.zip...), by their prefix, by a directory holding
+ * them, or by a glob such as "data/*.hdr" or "data/**.zip".
+ *
+ * Each thread loads its dataset at full resolution only if it fits in its share of half the
+ * heap, and otherwise at a reduced resolution. The contours of a reduced dataset are still
+ * traced at full resolution, by streaming the file a second time through a
+ * StreamingContourExtractor, since the contour levels come from the first pass's statistics.
+ * If a dataset still runs out of memory, the datasets not yet started are skipped. The
+ * dataset directories are only read, unless -sidecars is given: then each dataset's sidecar
+ * (prefix.gfc) is used, and written beside it if it is missing or stale, as the viewers do.
+ *
+ * Usage: java BatchProcessor [-threads n] [-out directory] [-contours n | -interval meters]
+ *                            [-size pixels] [-format text|geojson|binary] [-sidecars] dataset...
+ */
+public class BatchProcessor
+{
+	private static final int DEFAULT_CONTOURS = 10;
+	private static final int DEFAULT_RELIEF_SIZE = 4096;
+	private static final double OUTLIER_FRACTION = 0.01; //The fraction of cells at each extreme left out of the color ramp and default contours.
+	private static final double[] REPORTED_PERCENTILES = new double[]{1, 5, 25, 50, 75, 95, 99};
+	private static final Color LOW_COLOR = new Color(0, 0, 255);
+	private static final Color HIGH_COLOR = new Color(255, 0, 0);
+	private static final List<String> OPTIONS = Arrays.asList("-threads", "-out", "-contours", "-interval", "-size", "-format");
+	private static final List<String> FLAGS = Arrays.asList("-sidecars");
+
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private File outputDirectory;
+	private int numContours = DEFAULT_CONTOURS;
+	private double contourInterval;
+	private int reliefSize = DEFAULT_RELIEF_SIZE;
+	private ContourExporter.Format contourFormat = ContourExporter.Format.TEXT;
+	private boolean useSidecars;
+	private long availableBytes;
+	//Set once a dataset runs out of memory, to skip those not yet started.
+	private volatile boolean outOfMemory;
+	private final Set<String> prefixes = new LinkedHashSet<String>();
+
+	/**
+	 * Report records how long each step of processing one dataset took, in milliseconds, or
+	 * why it failed.
+	 */
+	private static class Report
+	{
+		final String prefix;
+		long loadTime, statsTime, contourTime, reliefTime, totalTime, numSegments;
+		String error;
+
+		Report(String prefix)
+		{
+			this.prefix = prefix;
+		}
+	}
+
+	/**
+	 * Reads the command line into the settings and the list of datasets.
+	 * @param args - The command line arguments.
+	 * @throws IllegalArgumentException If an option is unknown or missing its value.
+	 */
+	private void parseArguments(String[] args)
+	{
+		for (int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if(arg.startsWith("-") && !OPTIONS.contains(arg) && !FLAGS.contains(arg))
+				throw new IllegalArgumentException("Unknown option "+arg+".");
+			if(OPTIONS.contains(arg) && i+1 == args.length)
+				throw new IllegalArgumentException(arg+" needs a value.");
+			if(arg.equals("-sidecars"))
+				useSidecars = true;
+			else if(arg.equals("-threads"))
+				numThreads = Math.max(1, Integer.parseInt(args[++i]));
+			else if(arg.equals("-out"))
+				outputDirectory = new File(args[++i]);
+			else if(arg.equals("-contours"))
+				numContours = Math.max(1, Integer.parseInt(args[++i]));
+			else if(arg.equals("-interval"))
+				contourInterval = Double.parseDouble(args[++i]);
+			else if(arg.equals("-size"))
+				reliefSize = Math.max(1, Integer.parseInt(args[++i]));
+			else if(arg.equals("-format"))
+			{
+				String format = args[++i];
+				try
+				{
+					contourFormat = ContourExporter.Format.valueOf(format.toUpperCase());
+				}
+				catch(IllegalArgumentException e)
+				{
+					throw new IllegalArgumentException("Unknown contour format "+format+".");
+				}
+			}
+			else
+				addDatasets(arg);
+		}
+	}
+
+	/**
+	 * Adds the datasets named by an argument: those matching a glob, all of those in a
+	 * directory, or the one holding a file or having the given prefix.
+	 * @param arg - The argument.
+	 */
+	private void addDatasets(String arg)
+	{
+		int globStart = indexOfGlob(arg);
+		if(globStart >= 0)
+		{
+			int separator = Math.max(arg.lastIndexOf('/', globStart), arg.lastIndexOf(File.separatorChar, globStart));
+			Path base = Paths.get(separator < 0 ? "." : arg.substring(0, separator+1));
+			final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:"+arg.substring(separator+1));
+			final Path root = base;
+			final List<String> matches = new ArrayList<String>();
+			try
+			{
+				Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+						if(matcher.matches(root.relativize(file)) && isDatasetFile(file.toString()))
+							matches.add(GridFloatReader.getPrefix(file.toString()));
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			}
+			catch(IOException e)
+			{
+				System.err.println("Could not search "+base+": "+e.getMessage());
+			}
+			if(matches.isEmpty())
+				System.err.println("No datasets match "+arg+".");
+			Collections.sort(matches);
+			prefixes.addAll(matches);
+		}
+		else if(new File(arg).isDirectory())
+		{
+			for (GridFloatExtent tile : TileCatalog.scan(new File(arg)).getTiles())
+				prefixes.add(tile.prefix);
+		}
+		else
+			prefixes.add(new File(arg).isFile() ? GridFloatReader.getPrefix(arg) : arg);
+	}
+
+	/**
+	 * @return The position of the first glob character in a path, or -1 if it has none.
+	 */
+	private static int indexOfGlob(String path)
+	{
+		for (int i = 0; i < path.length(); i++)
+			if("*?[{".indexOf(path.charAt(i)) >= 0)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * @return true if a file is one of the files a dataset may be stored in.
+	 */
+	private static boolean isDatasetFile(String path)
+	{
+		String name = path.toLowerCase();
+		return name.endsWith(".hdr") || name.endsWith(".hdr.gz") || name.endsWith(".flt")
+			|| name.endsWith(".flt.gz") || name.endsWith(".zip");
+	}
+
+	/**
+	 * Processes every dataset on the thread pool, waits for them all, and prints the report.
+	 * @return true if every dataset was processed.
+	 */
+	private boolean run()
+	{
+		if(outputDirectory != null && !outputDirectory.isDirectory() && !outputDirectory.mkdirs())
+		{
+			System.err.println("Could not create "+outputDirectory+".");
+			return false;
+		}
+		long startTime = System.nanoTime();
+		//Half the heap, as GridFloatReader.load allows a single load, shared by the datasets loaded at once.
+		availableBytes = Runtime.getRuntime().maxMemory()/2/Math.max(1, Math.min(numThreads, prefixes.size()));
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		List<Future<Report>> futures = new ArrayList<Future<Report>>();
+		for (final String prefix : prefixes)
+		{
+			futures.add(pool.submit(new Callable<Report>() {
+				@Override
+				public Report call() {
+					return process(prefix);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		List<Report> reports = new ArrayList<Report>();
+		for (Future<Report> future : futures)
+		{
+			try
+			{
+				reports.add(future.get());
+			}
+			catch(InterruptedException e)
+			{
+				pool.shutdownNow();
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			catch(ExecutionException e)
+			{
+				//process catches its own failures, so this is not expected.
+				e.getCause().printStackTrace();
+			}
+		}
+		return printReport(reports, (System.nanoTime()-startTime)/1000000);
+	}
+
+	/**
+	 * Loads a dataset and writes its statistics, contours, and relief image, timing each step.
+	 * Failures are recorded in the report rather than thrown, so one bad dataset does not stop
+	 * the others.
+	 * @param prefix - The filename (minus extension) for the GridFloat data to be read in.
+	 * @return The report for the dataset.
+	 */
+	private Report process(String prefix)
+	{
+		Report report = new Report(prefix);
+		if(outOfMemory)
+		{
+			report.error = "Skipped after another dataset ran out of memory.";
+			return report;
+		}
+		long startTime = System.nanoTime(), stepTime = startTime;
+		try
+		{
+			GridFloatReader data = GridFloatReader.load(prefix, null, useSidecars, availableBytes);
+			if(data.height == null)
+				throw new IOException("No heights could be read.");
+			report.loadTime = lap(stepTime);
+			stepTime = System.nanoTime();
+
+			writeStatistics(prefix, data, getOutput(prefix, ".stats.txt"));
+			report.statsTime = lap(stepTime);
+			stepTime = System.nanoTime();
+
+			ContourSet contours;
+			ContourExporter exporter;
+			if(data.getReduction() > 1)
+			{
+				GridFloatReader header = GridFloatReader.openHeader(prefix);
+				StreamingContourExtractor extractor = new StreamingContourExtractor(getContourLevels(data));
+				header.streamRows(extractor);
+				contours = extractor.getResult();
+				exporter = new ContourExporter(header, 0);
+			}
+			else
+			{
+				GridFloatReader.ContourSource source = data.getContourSource(0);
+				contours = ContourExtractor.extract(source.grid, source.spans, source.mask, getContourLevels(data));
+				exporter = new ContourExporter(data, source.level);
+			}
+			exporter.write(ContourPolylines.stitch(contours), getOutput(prefix, contourFormat.extension), contourFormat);
+			report.numSegments = contours.getTotalSegments();
+			report.contourTime = lap(stepTime);
+			stepTime = System.nanoTime();
+
+			OverviewPyramid overviews = data.getOverviews();
+			HeightGrid reliefGrid = overviews.getLevel(overviews.getLevelForSize(reliefSize));
+			double reduction = (double)data.numColumns/reliefGrid.numColumns;
+			File reliefFile = getOutput(prefix, ".relief.png");
+			if(!ImageIO.write(ReliefRenderer.render(reliefGrid, data.noData, data.cellSizeX*reduction, data.cellSizeY*reduction,
+					data.histogram.getQuantile(OUTLIER_FRACTION), data.histogram.getQuantile(1-OUTLIER_FRACTION), LOW_COLOR, HIGH_COLOR), "png", reliefFile))
+				throw new IOException("No PNG writer is available.");
+			report.reliefTime = lap(stepTime);
+		}
+		catch(Exception e)
+		{
+			report.error = e.getMessage() != null ? e.getMessage() : e.toString();
+			System.err.println(prefix+" failed: "+report.error);
+		}
+		catch(OutOfMemoryError e)
+		{
+			outOfMemory = true;
+			report.error = "Out of memory; try fewer threads or a larger heap. The datasets not yet started are skipped.";
+			System.err.println(prefix+" failed: "+report.error);
+		}
+		report.totalTime = lap(startTime);
+		return report;
+	}
+
+	/**
+	 * Chooses the contour levels for a dataset: every contourInterval meters if an interval was
+	 * given, and otherwise numContours levels spanning all but the outlying cells, as TerrainVis
+	 * does by default.
+	 * @param data - The dataset.
+	 * @return The elevation of each contour.
+	 */
+	private double[] getContourLevels(GridFloatReader data)
+	{
+		if(contourInterval > 0)
+		{
+			double first = Math.ceil(data.minHeight/contourInterval)*contourInterval;
+			int count = Math.max(0, (int)Math.floor((data.maxHeight-first)/contourInterval)+1);
+			double[] levels = new double[count];
+			for (int i = 0; i < count; i++)
+				levels[i] = first + i*contourInterval;
+			return levels;
+		}
+		double low = Math.max(data.minHeight, Math.ceil(data.histogram.getQuantile(OUTLIER_FRACTION)));
+		double high = Math.min(data.maxHeight, Math.floor(data.histogram.getQuantile(1-OUTLIER_FRACTION)));
+		double[] levels = new double[numContours];
+		for (int i = 0; i < numContours; i++)
+			levels[i] = Math.min(low, high) + i*Math.abs(high-low)/numContours;
+		return levels;
+	}
+
+	/**
+	 * Writes the extent and statistics of a dataset as a plain text report.
+	 */
+	private void writeStatistics(String prefix, GridFloatReader data, File file) throws IOException
+	{
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		try
+		{
+			out.println("Dataset: "+prefix);
+			out.println("Grid: "+data.numColumns+" columns X "+data.numRows+" rows");
+			out.println("Cell size: "+data.cellSize+" degrees ("+data.cellSizeX+" m X "+data.cellSizeY+" m)");
+			out.println("Latitude: "+data.minLat+" to "+data.maxLat);
+			out.println("Longitude: "+data.minLong+" to "+data.maxLong);
+			out.println("Cells: "+data.numCells+" ("+data.numEmptyCells+" empty)");
+			out.println("Minimum: "+data.minHeight+" at column "+data.minHeightXidx+", row "+data.minHeightYIdx);
+			out.println("Maximum: "+data.maxHeight+" at column "+data.maxHeightXIdx+", row "+data.maxHeightYIdx);
+			out.println("Average: "+data.avgHeight);
+			for (double percentile : REPORTED_PERCENTILES)
+				out.println("Percentile "+percentile+": "+data.histogram.getQuantile(percentile/100));
+		}
+		finally
+		{
+			out.close();
+		}
+		if(out.checkError())
+			throw new IOException("Could not write "+file+".");
+	}
+
+	/**
+	 * @return The file to write one of a dataset's products to, in the output directory if one
+	 *         was given, and otherwise beside the dataset.
+	 */
+	private File getOutput(String prefix, String extension)
+	{
+		File prefixFile = new File(prefix+extension);
+		return outputDirectory == null ? prefixFile : new File(outputDirectory, prefixFile.getName());
+	}
+
+	/**
+	 * @return The milliseconds since a time from System.nanoTime.
+	 */
+	private static long lap(long startTime)
+	{
+		return (System.nanoTime()-startTime)/1000000;
+	}
+
+	/**
+	 * Prints the time spent on each step of each dataset, and the total.
+	 * @param reports - The reports, in the order the datasets were given.
+	 * @param wallTime - The milliseconds the whole batch took.
+	 * @return true if no dataset failed.
+	 */
+	private boolean printReport(List<Report> reports, long wallTime)
+	{
+		int failures = 0;
+		System.out.println();
+		System.out.println(String.format("%-40s %9s %9s %9s %9s %9s %10s", "Dataset", "Load ms", "Stats ms", "Contour ms", "Relief ms", "Total ms", "Segments"));
+		for (Report report : reports)
+		{
+			String name = new File(report.prefix).getName();
+			if(report.error != null)
+			{
+				failures++;
+				System.out.println(String.format("%-40s FAILED: %s", name, report.error));
+			}
+			else
+				System.out.println(String.format("%-40s %9d %9d %9d %9d %9d %10d", name, report.loadTime, report.statsTime,
+						report.contourTime, report.reliefTime, report.totalTime, report.numSegments));
+		}
+		System.out.println(reports.size()+" datasets ("+failures+" failed) on "+numThreads+" threads in "+wallTime+" ms.");
+		return failures == 0;
+	}
+
+	/**
+	 * The main method processes the datasets named on the command line.
+	 * @param args The options and datasets; see the class description.
+	 */
+	public static void main(String[] args)
+	{
+		BatchProcessor batch = new BatchProcessor();
+		try
+		{
+			batch.parseArguments(args);
+		}
+		catch(IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			batch.prefixes.clear();
+		}
+		if(batch.prefixes.isEmpty())
+		{
+			System.err.println("Usage: java BatchProcessor [-threads n] [-out directory] [-contours n | -interval meters] [-size pixels] [-format text|geojson|binary] [-sidecars] dataset...");
+			System.exit(2);
+		}
+		System.exit(batch.run() ? 0 : 1);
+	}
+}
@@ -0,0 +1,207 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ContourCache holds recently used contours, stitched into polylines, one contour per entry,
+ * and evicts the least recently used once their total size passes a limit in bytes. Contours are
+ * keyed by the grid they were traced from, which stands for a dataset at one resolution level,
+ * and their elevation, so that when a set of contours changes only the new elevations need be
+ * traced. Grids are compared by identity: GridFloatReader replaces a level's grid, rather than
+ * changing it, whenever its heights change.
+ *
+ * Only contours of the current grids, set by retainGrids, are kept. The entries of a replaced
+ * grid could never be hit again, and would keep the grid from being freed while taking no part
+ * in the size limit, so they are removed when it is replaced, and contours traced from it later
+ * are returned but not stored.
+ */
+public class ContourCache
+{
+	private final long maxBytes;
+	private final LinkedHashMap<Key,ContourPolylines> contours = new LinkedHashMap<Key,ContourPolylines>(16, 0.75f, true);
+	//The grids whose contours are kept, compared by identity.
+	private final Set<HeightGrid> grids = Collections.newSetFromMap(new IdentityHashMap<HeightGrid,Boolean>());
+	private long bytes, hits, misses;
+
+	/**
+	 * @param maxBytes - The total size of the contours to keep. The contours most recently
+	 *                   asked for are always kept, even if they alone are larger.
+	 */
+	public ContourCache(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Gets a set of contours, tracing and stitching only those that are not already cached.
+	 * @param grid - The grid (or overview level) to contour.
+	 * @param spans - The span index of the grid.
+	 * @param mask - The grid's non-empty cells.
+	 * @param levels - The elevation of each contour.
+	 * @return The contours' polylines, in cell coordinates.
+	 */
+	public ContourPolylines get(HeightGrid grid, SpanIndex spans, ValidityMask mask, double[] levels)
+	{
+		ContourPolylines[] found = new ContourPolylines[levels.length];
+		List<Integer> missing = lookup(grid, levels, found);
+		if(!missing.isEmpty())
+		{
+			//Trace outside the lock, so that lookups from other threads are not held up.
+			double[] missingLevels = new double[missing.size()];
+			for (int i = 0; i < missingLevels.length; i++)
+				missingLevels[i] = levels[missing.get(i)];
+			ContourPolylines traced = ContourPolylines.stitch(ContourExtractor.extract(grid, spans, mask, missingLevels));
+			for (int i = 0; i < missingLevels.length; i++)
+				found[missing.get(i)] = traced.getLevel(i);
+			store(grid, missingLevels, traced, levels.length);
+		}
+		return ContourPolylines.combine(found);
+	}
+
+	/**
+	 * Gets a set of contours only if all of them are cached.
+	 * @param grid - The grid (or overview level) the contours were traced from.
+	 * @param levels - The elevation of each contour.
+	 * @return The contours' polylines, or null if any are not cached.
+	 */
+	public ContourPolylines getIfCached(HeightGrid grid, double[] levels)
+	{
+		ContourPolylines[] found = new ContourPolylines[levels.length];
+		return lookup(grid, levels, found).isEmpty() ? ContourPolylines.combine(found) : null;
+	}
+
+	/**
+	 * Looks up each contour of a set.
+	 * @param grid - The grid (or overview level) the contours were traced from.
+	 * @param levels - The elevation of each contour.
+	 * @param found - Receives the cached contours, at the index of their elevation.
+	 * @return The indexes of the contours that are not cached.
+	 */
+	private synchronized List<Integer> lookup(HeightGrid grid, double[] levels, ContourPolylines[] found)
+	{
+		List<Integer> missing = new ArrayList<Integer>();
+		for (int i = 0; i < levels.length; i++)
+		{
+			found[i] = contours.get(new Key(grid, levels[i]));
+			if(found[i] != null) hits++;
+			else
+			{
+				misses++;
+				missing.add(i);
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * Adds newly traced contours, unless their grid has been replaced meanwhile, and evicts old
+	 * ones past the size limit.
+	 * @param grid - The grid (or overview level) the contours were traced from.
+	 * @param levels - The elevation of each contour.
+	 * @param traced - The contours, in the order of levels.
+	 * @param keep - The number of most recently used contours to keep regardless of size.
+	 */
+	private synchronized void store(HeightGrid grid, double[] levels, ContourPolylines traced, int keep)
+	{
+		if(!grids.contains(grid))
+			return;
+		for (int i = 0; i < levels.length; i++)
+		{
+			ContourPolylines contour = traced.getLevel(i);
+			ContourPolylines replaced = contours.put(new Key(grid, levels[i]), contour);
+			bytes += contour.getBytes();
+			if(replaced != null)
+				bytes -= replaced.getBytes();
+		}
+
+		//Evict in access order, which leaves the contours just looked up and stored for last.
+		Iterator<Map.Entry<Key,ContourPolylines>> eldest = contours.entrySet().iterator();
+		while(bytes > maxBytes && contours.size() > keep)
+		{
+			bytes -= eldest.next().getValue().getBytes();
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Makes the levels of a pyramid the only grids whose contours are kept, removing the contours
+	 * of every other grid so that those grids can be freed. Called whenever a dataset is loaded,
+	 * or its pyramid is rebuilt.
+	 * @param overviews - The pyramid of the current dataset.
+	 */
+	public synchronized void retainGrids(OverviewPyramid overviews)
+	{
+		grids.clear();
+		for (int level = 0; level < overviews.getNumLevels(); level++)
+			grids.add(overviews.getLevel(level));
+		Iterator<Map.Entry<Key,ContourPolylines>> entries = contours.entrySet().iterator();
+		while(entries.hasNext())
+		{
+			Map.Entry<Key,ContourPolylines> entry = entries.next();
+			if(!grids.contains(entry.getKey().grid))
+			{
+				bytes -= entry.getValue().getBytes();
+				entries.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return The total size of the cached contours, in bytes.
+	 */
+	public synchronized long getBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * @return The number of contours found in the cache.
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * @return The number of contours that had to be traced.
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * Key identifies a contour by the grid it was traced from, compared by identity, and its
+	 * elevation.
+	 */
+	private static class Key
+	{
+		final HeightGrid grid;
+		final double level;
+
+		Key(HeightGrid grid, double level)
+		{
+			this.grid = grid;
+			this.level = level;
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if(!(other instanceof Key)) return false;
+			Key key = (Key)other;
+			return key.grid == grid && Double.compare(key.level, level) == 0;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31*System.identityHashCode(grid) + Double.hashCode(level);
+		}
+	}
+}
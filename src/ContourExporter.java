@@ -0,0 +1,224 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ContourExporter writes contour polylines, with their elevations, to files in longitude and
+ * latitude, for use in GIS tools. Polylines are streamed through one reused buffer into a file
+ * channel as they are formatted, so even a very large set of contours is never held in memory
+ * as text. Cell coordinates name cell centers, which lie half a cell in from the grid's edges.
+ *
+ * Three formats are written:
+ *
+ *   TEXT    - One polyline per line: elevation, then the longitude and latitude of each vertex.
+ *   GEOJSON - A GeoJSON FeatureCollection with one LineString feature per polyline, whose
+ *             "elevation" property is its contour's elevation.
+ *   BINARY  - Little-endian: the bytes "GFCL", then int version (1) and int number of contours;
+ *             for each contour, double elevation and int number of polylines; for each
+ *             polyline, int number of vertices followed by double longitude and latitude pairs.
+ *
+ * A closed polyline ends at its first vertex in every format.
+ */
+public class ContourExporter
+{
+	/**
+	 * Format is a kind of file to export contours to.
+	 */
+	public enum Format
+	{
+		TEXT(".contours.txt"), GEOJSON(".contours.geojson"), BINARY(".contours.bin");
+
+		public final String extension;
+
+		private Format(String extension)
+		{
+			this.extension = extension;
+		}
+
+		/**
+		 * @return The format a file name's extension implies, or TEXT if it implies none.
+		 */
+		public static Format forFile(String name)
+		{
+			String lower = name.toLowerCase();
+			if(lower.endsWith(".geojson") || lower.endsWith(".json")) return GEOJSON;
+			if(lower.endsWith(".bin")) return BINARY;
+			return TEXT;
+		}
+	}
+
+	private static final int BUFFER_BYTES = 1 << 16;
+	private static final byte[] BINARY_MAGIC = new byte[]{'G', 'F', 'C', 'L'};
+	private static final int BINARY_VERSION = 1;
+
+	private final double westLong, northLat, cellLong, cellLat;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	//Reused to format each polyline's text before it is copied into the buffer.
+	private final StringBuilder text = new StringBuilder();
+
+	/**
+	 * Creates an exporter for contours traced from a dataset or one of its overview levels. As in
+	 * OverviewPyramid, a level's cells are 2^level of the dataset's cells on a side, starting from
+	 * its northwestern corner, so the last row and column may reach past the dataset's edges.
+	 * @param data - The dataset, whose northwestern corner and cell size place the contours.
+	 * @param level - The level of the overview pyramid the contours were traced from.
+	 */
+	public ContourExporter(GridFloatReader data, int level)
+	{
+		cellLong = cellLat = data.cellSize*(1 << level);
+		westLong = data.minLong + cellLong/2;
+		northLat = data.maxLat - cellLat/2;
+	}
+
+	/**
+	 * Writes a set of contours to a file, replacing it if it exists.
+	 * @param contours - The contours.
+	 * @param file - The file to write.
+	 * @param format - The format to write in.
+	 * @throws IOException If the file could not be written.
+	 */
+	public void write(ContourPolylines contours, File file, Format format) throws IOException
+	{
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+								   StandardOpenOption.TRUNCATE_EXISTING);
+		buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		try
+		{
+			switch(format)
+			{
+				case GEOJSON: writeGeoJSON(contours); break;
+				case BINARY:  writeBinary(contours); break;
+				default:      writeText(contours); break;
+			}
+			flush();
+		}
+		finally
+		{
+			channel.close();
+			channel = null;
+			buffer = null;
+		}
+	}
+
+	private void writeText(ContourPolylines contours) throws IOException
+	{
+		for (int level = 0; level < contours.levels.length; level++)
+		{
+			float[] vertices = contours.getVertices(level);
+			int[] starts = contours.getStarts(level);
+			for (int line = 0; line < contours.getNumPolylines(level); line++)
+			{
+				text.setLength(0);
+				text.append(contours.levels[level]);
+				for (int i = 2*starts[line]; i < 2*starts[line+1]; i += 2)
+					text.append(' ').append(getLongitude(vertices[i])).append(' ').append(getLatitude(vertices[i+1]));
+				text.append('\n');
+				putText();
+			}
+		}
+	}
+
+	private void writeGeoJSON(ContourPolylines contours) throws IOException
+	{
+		text.setLength(0);
+		text.append("{\"type\":\"FeatureCollection\",\"features\":[");
+		putText();
+		boolean first = true;
+		for (int level = 0; level < contours.levels.length; level++)
+		{
+			float[] vertices = contours.getVertices(level);
+			int[] starts = contours.getStarts(level);
+			for (int line = 0; line < contours.getNumPolylines(level); line++)
+			{
+				text.setLength(0);
+				text.append(first ? "\n" : ",\n");
+				text.append("{\"type\":\"Feature\",\"properties\":{\"elevation\":").append(contours.levels[level])
+					.append("},\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+				for (int i = 2*starts[line]; i < 2*starts[line+1]; i += 2)
+				{
+					if(i > 2*starts[line]) text.append(',');
+					text.append('[').append(getLongitude(vertices[i])).append(',').append(getLatitude(vertices[i+1])).append(']');
+				}
+				text.append("]}}");
+				putText();
+				first = false;
+			}
+		}
+		text.setLength(0);
+		text.append("\n]}\n");
+		putText();
+	}
+
+	private void writeBinary(ContourPolylines contours) throws IOException
+	{
+		buffer.put(BINARY_MAGIC).putInt(BINARY_VERSION).putInt(contours.levels.length);
+		for (int level = 0; level < contours.levels.length; level++)
+		{
+			float[] vertices = contours.getVertices(level);
+			int[] starts = contours.getStarts(level);
+			ensureRoom(12);
+			buffer.putDouble(contours.levels[level]).putInt(contours.getNumPolylines(level));
+			for (int line = 0; line < contours.getNumPolylines(level); line++)
+			{
+				ensureRoom(4);
+				buffer.putInt(starts[line+1]-starts[line]);
+				for (int i = 2*starts[line]; i < 2*starts[line+1]; i += 2)
+				{
+					ensureRoom(16);
+					buffer.putDouble(getLongitude(vertices[i])).putDouble(getLatitude(vertices[i+1]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The longitude of a column, in cell coordinates.
+	 */
+	private double getLongitude(float column)
+	{
+		return westLong + column*cellLong;
+	}
+
+	/**
+	 * @return The latitude of a row, in cell coordinates.
+	 */
+	private double getLatitude(float row)
+	{
+		return northLat - row*cellLat;
+	}
+
+	/**
+	 * Copies the formatted text, which is all ASCII, into the buffer, writing it out as it fills.
+	 */
+	private void putText() throws IOException
+	{
+		for (int i = 0; i < text.length(); i++)
+		{
+			if(!buffer.hasRemaining()) flush();
+			buffer.put((byte)text.charAt(i));
+		}
+	}
+
+	/**
+	 * Writes out the buffer if it has less than a number of bytes free.
+	 */
+	private void ensureRoom(int bytes) throws IOException
+	{
+		if(buffer.remaining() < bytes) flush();
+	}
+
+	/**
+	 * Writes the buffered bytes to the channel and empties the buffer.
+	 */
+	private void flush() throws IOException
+	{
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+}
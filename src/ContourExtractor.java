@@ -0,0 +1,313 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ContourExtractor traces contour lines through a height grid by marching squares, without
+ * drawing them, so that contours can be computed for display or for export alike. Cells are
+ * visited in the square blocks of a SpanIndex, and each contour visits only the blocks whose
+ * span of elevations it crosses, so the work follows the length of the contours rather than
+ * the size of the grid. In blocks with some empty cells, cells with an empty corner are skipped.
+ * Contours, and runs of a contour's blocks, are traced in parallel on the common fork-join pool,
+ * each task into its own ContourSet, and the sets are appended together in order, so the result
+ * is the same as if it were traced serially.
+ *
+ * Cell Corner Numbering Scheme:
+ *					[0]------------[1]
+ *					 '              '
+ *					 '              '
+ *					 '              '
+ *					 '              '
+ *					[2]------------[3]
+ */
+public class ContourExtractor
+{
+	//The number of blocks below which a contour's blocks are traced serially rather than split.
+	private static final int BLOCKS_PER_TASK = 256;
+
+	//The edges of a cell, between corners 0 and 1, 0 and 2, 1 and 3, and 2 and 3.
+	private static final int TOP = 0, LEFT = 1, RIGHT = 2, BOTTOM = 3;
+	//The segments to draw through a cell, as pairs of the edges they join, for each case. Bit i
+	//of the case is set if corner i is above the contour. In the ambiguous cases, 6 and 9, where
+	//opposite corners are above, the segments always cut off corners 1 and 2.
+	private static final int[][] SEGMENT_EDGES = new int[][]{
+		{},						//No corners above
+		{LEFT, TOP},			//0
+		{TOP, RIGHT},			//1
+		{LEFT, RIGHT},			//0, 1
+		{LEFT, BOTTOM},			//2
+		{TOP, BOTTOM},			//0, 2
+		{TOP, RIGHT, LEFT, BOTTOM},	//1, 2
+		{BOTTOM, RIGHT},		//0, 1, 2
+		{BOTTOM, RIGHT},		//3
+		{TOP, RIGHT, LEFT, BOTTOM},	//0, 3
+		{TOP, BOTTOM},			//1, 3
+		{LEFT, BOTTOM},			//0, 1, 3
+		{LEFT, RIGHT},			//2, 3
+		{TOP, RIGHT},			//0, 2, 3
+		{LEFT, TOP},			//1, 2, 3
+		{}						//All corners above
+	};
+
+	/**
+	 * Extracts the segments of a set of contours from a grid. The span index and mask must
+	 * have been built from the same grid, as GridFloatReader.getContourSource provides them.
+	 * @param grid - The grid (or overview level) to contour.
+	 * @param spans - The span index of the grid.
+	 * @param mask - The grid's non-empty cells.
+	 * @param levels - The elevation of each contour.
+	 * @return The contours' segments, in cell coordinates.
+	 * @throws IllegalArgumentException If the span index was built from another grid, or the
+	 *                                  mask is of another size.
+	 */
+	public static ContourSet extract(HeightGrid grid, SpanIndex spans, ValidityMask mask, double[] levels)
+	{
+		if(spans.grid != grid)
+			throw new IllegalArgumentException("The span index was built from another grid.");
+		if(mask.numColumns != grid.numColumns || mask.numRows != grid.numRows)
+			throw new IllegalArgumentException("The validity mask is for a "+mask.numColumns+" X "+mask.numRows
+					+" grid, not "+grid.numColumns+" X "+grid.numRows+".");
+		if(levels.length == 0)
+			return new ContourSet(levels);
+		return ForkJoinPool.commonPool().invoke(new LevelTask(grid, spans, mask, levels, 0, levels.length));
+	}
+
+	/**
+	 * Adds the segments of a contour through each cell of a block. The corners of each cell
+	 * above the contour form a case number whose segments are looked up in SEGMENT_EDGES, and
+	 * only the edges a segment ends on are interpolated.
+	 * @param grid - The grid the block is in.
+	 * @param blockX - The first column of cells in the block.
+	 * @param blockY - The first row of cells in the block.
+	 * @param endX - The column of cells after the end of the block.
+	 * @param endY - The row of cells after the end of the block.
+	 * @param level - The index of the contour.
+	 * @param mask - The cells of the grid that hold data, or null if every cell of the block does.
+	 * @param contours - The set to add the segments to.
+	 */
+	private static void extractBlock(HeightGrid grid, int blockX, int blockY, int endX, int endY,
+									 int level, ValidityMask mask, ContourSet contours)
+	{
+		double thisContour = contours.levels[level];
+		for (int y = blockY; y < endY; y++)
+		{
+			for (int x = blockX; x < endX; x++)
+			{
+				if(mask != null && !mask.allValid(x, y, x+2, y+2)) continue;
+				float h0 = grid.get(x, y), h1 = grid.get(x+1, y), h2 = grid.get(x, y+1), h3 = grid.get(x+1, y+1);
+
+				//A corner exactly at the contour's elevation counts as below it.
+				int cellCase = (h0 > thisContour ? 1 : 0) | (h1 > thisContour ? 2 : 0)
+							 | (h2 > thisContour ? 4 : 0) | (h3 > thisContour ? 8 : 0);
+				int[] edges = SEGMENT_EDGES[cellCase];
+				for (int i = 0; i < edges.length; i += 2)
+				{
+					int from = edges[i], to = edges[i+1];
+					contours.addSegment(level,
+							x + edgeX(from, h0, h1, h2, h3, thisContour), y + edgeY(from, h0, h1, h2, h3, thisContour),
+							x + edgeX(to, h0, h1, h2, h3, thisContour), y + edgeY(to, h0, h1, h2, h3, thisContour),
+							edgeKey(from, x, y, grid.numColumns), edgeKey(to, x, y, grid.numColumns));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the segments of a contour through one row of cells, given the rows of points above and
+	 * below it, as held by a pipeline stage that sees the grid one block of rows at a time. Cells
+	 * with an empty corner are skipped, and the segments are the same as extract finds for them.
+	 * @param upper - The row of points along the cells' top edges.
+	 * @param upperOffset - The position in upper of the row's first point.
+	 * @param lower - The row of points along the cells' bottom edges.
+	 * @param lowerOffset - The position in lower of the row's first point.
+	 * @param numColumns - The number of points in each row.
+	 * @param y - The row of the upper points in the grid.
+	 * @param noData - The value marking empty points.
+	 * @param level - The index of the contour.
+	 * @param contours - The set to add the segments to.
+	 */
+	static void extractRow(float[] upper, int upperOffset, float[] lower, int lowerOffset, int numColumns, int y,
+						   float noData, int level, ContourSet contours)
+	{
+		double thisContour = contours.levels[level];
+		for (int x = 0; x < numColumns-1; x++)
+		{
+			float h0 = upper[upperOffset+x], h1 = upper[upperOffset+x+1], h2 = lower[lowerOffset+x], h3 = lower[lowerOffset+x+1];
+			if(h0 == noData || h1 == noData || h2 == noData || h3 == noData) continue;
+
+			int cellCase = (h0 > thisContour ? 1 : 0) | (h1 > thisContour ? 2 : 0)
+						 | (h2 > thisContour ? 4 : 0) | (h3 > thisContour ? 8 : 0);
+			int[] edges = SEGMENT_EDGES[cellCase];
+			for (int i = 0; i < edges.length; i += 2)
+			{
+				int from = edges[i], to = edges[i+1];
+				contours.addSegment(level,
+						x + edgeX(from, h0, h1, h2, h3, thisContour), y + edgeY(from, h0, h1, h2, h3, thisContour),
+						x + edgeX(to, h0, h1, h2, h3, thisContour), y + edgeY(to, h0, h1, h2, h3, thisContour),
+						edgeKey(from, x, y, numColumns), edgeKey(to, x, y, numColumns));
+			}
+		}
+	}
+
+	/**
+	 * Traces a contour through a run of its blocks into a new set.
+	 * @param grid - The grid the blocks are in.
+	 * @param spans - The span index of the grid.
+	 * @param mask - The grid's non-empty cells.
+	 * @param levels - The elevation of each contour.
+	 * @param level - The index of the contour to trace.
+	 * @param blocks - The blocks the contour passes through.
+	 * @param first - The first block of the run.
+	 * @param end - The block after the end of the run.
+	 * @return The segments traced.
+	 */
+	private static ContourSet extractBlocks(HeightGrid grid, SpanIndex spans, ValidityMask mask, double[] levels,
+											int level, int[] blocks, int first, int end)
+	{
+		ContourSet contours = new ContourSet(levels);
+		for (int i = first; i < end; i++)
+		{
+			int blockX = (blocks[i] % spans.numBlockColumns)*SpanIndex.BLOCK_CELLS;
+			int blockY = (blocks[i] / spans.numBlockColumns)*SpanIndex.BLOCK_CELLS;
+			extractBlock(grid, blockX, blockY, Math.min(blockX+SpanIndex.BLOCK_CELLS, grid.numColumns-1),
+						 Math.min(blockY+SpanIndex.BLOCK_CELLS, grid.numRows-1), level,
+						 spans.isComplete(blocks[i]) ? null : mask, contours);
+		}
+		return contours;
+	}
+
+	/**
+	 * @return The column, relative to a cell's first corner, at which a contour crosses an edge.
+	 */
+	private static float edgeX(int edge, float h0, float h1, float h2, float h3, double value)
+	{
+		switch(edge)
+		{
+			case TOP:    return crossing(h0, h1, value);
+			case BOTTOM: return crossing(h2, h3, value);
+			case RIGHT:  return 1;
+			default:     return 0;
+		}
+	}
+
+	/**
+	 * @return The row, relative to a cell's first corner, at which a contour crosses an edge.
+	 */
+	private static float edgeY(int edge, float h0, float h1, float h2, float h3, double value)
+	{
+		switch(edge)
+		{
+			case LEFT:   return crossing(h0, h2, value);
+			case RIGHT:  return crossing(h1, h3, value);
+			case BOTTOM: return 1;
+			default:     return 0;
+		}
+	}
+
+	/**
+	 * @return The key of an edge of cell (x, y), shared with the neighbouring cell across it.
+	 */
+	private static long edgeKey(int edge, int x, int y, int numColumns)
+	{
+		switch(edge)
+		{
+			case TOP:    return ContourSet.getRowEdge(x, y, numColumns);
+			case BOTTOM: return ContourSet.getRowEdge(x, y+1, numColumns);
+			case LEFT:   return ContourSet.getColumnEdge(x, y, numColumns);
+			default:     return ContourSet.getColumnEdge(x+1, y, numColumns);
+		}
+	}
+
+	/**
+	 * Returns the fraction of the distance between two corners at which a provided elevation
+	 * will fall, according to linear interpolation.
+	 * @param from - The elevation of the first corner.
+	 * @param to - The elevation of the second corner.
+	 * @param value - The elevation.
+	 * @return The fraction of the way from the first corner to the second.
+	 */
+	private static float crossing(float from, float to, double value)
+	{
+		return (float)((from-value)/(from-to));
+	}
+
+	/**
+	 * LevelTask splits a range of contours in half until it holds a single contour, whose blocks
+	 * are then traced by a BlockTask, and appends the halves' segments together.
+	 */
+	private static class LevelTask extends RecursiveTask<ContourSet>
+	{
+		private static final long serialVersionUID = 1L;
+		private final HeightGrid grid;
+		private final SpanIndex spans;
+		private final ValidityMask mask;
+		private final double[] levels;
+		private final int firstLevel, endLevel;
+
+		LevelTask(HeightGrid grid, SpanIndex spans, ValidityMask mask, double[] levels, int firstLevel, int endLevel)
+		{
+			this.grid = grid;
+			this.spans = spans;
+			this.mask = mask;
+			this.levels = levels;
+			this.firstLevel = firstLevel;
+			this.endLevel = endLevel;
+		}
+
+		@Override
+		protected ContourSet compute()
+		{
+			if (endLevel-firstLevel == 1)
+			{
+				int[] blocks = spans.findBlocks(levels[firstLevel]);
+				return new BlockTask(grid, spans, mask, levels, firstLevel, blocks, 0, blocks.length).compute();
+			}
+			int midLevel = (firstLevel+endLevel) >>> 1;
+			LevelTask upper = new LevelTask(grid, spans, mask, levels, midLevel, endLevel);
+			upper.fork();
+			ContourSet contours = new LevelTask(grid, spans, mask, levels, firstLevel, midLevel).compute();
+			contours.append(upper.join());
+			return contours;
+		}
+	}
+
+	/**
+	 * BlockTask splits a run of a contour's blocks in half until it is small enough to trace
+	 * directly, and appends the halves' segments together.
+	 */
+	private static class BlockTask extends RecursiveTask<ContourSet>
+	{
+		private static final long serialVersionUID = 1L;
+		private final HeightGrid grid;
+		private final SpanIndex spans;
+		private final ValidityMask mask;
+		private final double[] levels;
+		private final int level;
+		private final int[] blocks;
+		private final int first, end;
+
+		BlockTask(HeightGrid grid, SpanIndex spans, ValidityMask mask, double[] levels, int level, int[] blocks, int first, int end)
+		{
+			this.grid = grid;
+			this.spans = spans;
+			this.mask = mask;
+			this.levels = levels;
+			this.level = level;
+			this.blocks = blocks;
+			this.first = first;
+			this.end = end;
+		}
+
+		@Override
+		protected ContourSet compute()
+		{
+			if (end-first <= BLOCKS_PER_TASK)
+				return extractBlocks(grid, spans, mask, levels, level, blocks, first, end);
+			int mid = (first+end) >>> 1;
+			BlockTask upper = new BlockTask(grid, spans, mask, levels, level, blocks, mid, end);
+			upper.fork();
+			ContourSet contours = new BlockTask(grid, spans, mask, levels, level, blocks, first, mid).compute();
+			contours.append(upper.join());
+			return contours;
+		}
+	}
+}
@@ -0,0 +1,216 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ContourPolylines holds contours as continuous polylines, joined from the separate segments of
+ * a ContourSet. Marching squares yields each contour as one segment per cell, and the two cells
+ * either side of a cell edge compute the same point on it, so every segment end that lies on an
+ * edge shared with another segment's end is joined to it. A contour that runs off the grid or
+ * into empty cells becomes an open polyline; one that closes on itself becomes a polyline whose
+ * last vertex repeats its first. A chain of n segments needs only n+1 vertices rather than 2n,
+ * and can be drawn as one line strip.
+ *
+ * Each contour level keeps its vertices in one flat float array, two coordinates per vertex
+ * (x, y), in the cell units of the ContourSet, along with the index of each polyline's first
+ * vertex.
+ */
+public class ContourPolylines
+{
+	private static final int INITIAL_VERTICES = 256;
+
+	public final double[] levels;
+	private final float[][] vertices;
+	//Polyline i of a level is vertices starts[i] to starts[i+1]-1.
+	private final int[][] starts;
+
+	private ContourPolylines(double[] levels)
+	{
+		this.levels = levels.clone();
+		vertices = new float[levels.length][];
+		starts = new int[levels.length][];
+	}
+
+	/**
+	 * Joins the segments of a set of contours into polylines. Contours are stitched in parallel
+	 * on the common fork-join pool.
+	 * @param contours - The segments to join.
+	 * @return The polylines of each contour.
+	 */
+	public static ContourPolylines stitch(ContourSet contours)
+	{
+		ContourPolylines polylines = new ContourPolylines(contours.levels);
+		if(contours.levels.length > 0)
+			ForkJoinPool.commonPool().invoke(new StitchTask(contours, polylines, 0, contours.levels.length));
+		return polylines;
+	}
+
+	/**
+	 * Joins the segments of one contour. Each end of a segment is numbered 2*segment+end, and
+	 * ends on the same edge are paired through a map from edge keys. Chains are then walked from
+	 * each unpaired end, and whatever segments remain belong to closed loops.
+	 * @param contours - The segments to join.
+	 * @param level - The index of the contour.
+	 */
+	private void stitchLevel(ContourSet contours, int level)
+	{
+		int numSegments = contours.getNumSegments(level);
+		float[] coords = contours.getCoordinates(level);
+		long[] edges = contours.getEdges(level);
+
+		int[] partners = new int[2*numSegments];
+		LongIntMap ends = new LongIntMap(2*numSegments);
+		for (int end = 0; end < partners.length; end++)
+		{
+			int other = ends.putIfAbsent(edges[end], end);
+			partners[end] = other;
+			if(other >= 0)
+				partners[other] = end;
+		}
+
+		boolean[] used = new boolean[numSegments];
+		float[] points = new float[2*Math.max(INITIAL_VERTICES, numSegments+1)];
+		int[] lineStarts = new int[INITIAL_VERTICES];
+		int numVertices = 0, numLines = 0;
+		//Open chains first, so that none is entered partway along, then closed loops.
+		for (int pass = 0; pass < 2; pass++)
+		{
+			for (int first = 0; first < partners.length; first++)
+			{
+				if(used[first>>1] || (pass == 0 && partners[first] >= 0)) continue;
+				if(numLines+1 >= lineStarts.length)
+					lineStarts = Arrays.copyOf(lineStarts, 2*lineStarts.length);
+				lineStarts[numLines++] = numVertices;
+				//At most every remaining segment, plus the first vertex, will be added.
+				if(2*(numVertices+numSegments+1) > points.length)
+					points = Arrays.copyOf(points, Math.max(2*points.length, 2*(numVertices+numSegments+1)));
+				points[2*numVertices] = coords[2*first];
+				points[2*numVertices+1] = coords[2*first+1];
+				numVertices++;
+				for (int end = first; end >= 0 && !used[end>>1]; end = partners[end^1])
+				{
+					used[end>>1] = true;
+					points[2*numVertices] = coords[2*(end^1)];
+					points[2*numVertices+1] = coords[2*(end^1)+1];
+					numVertices++;
+				}
+			}
+		}
+		lineStarts[numLines] = numVertices;
+		vertices[level] = Arrays.copyOf(points, 2*numVertices);
+		starts[level] = Arrays.copyOf(lineStarts, numLines+1);
+	}
+
+	/**
+	 * @param level - The index of the contour in levels.
+	 * @return The number of polylines in the contour.
+	 */
+	public int getNumPolylines(int level)
+	{
+		return starts[level].length-1;
+	}
+
+	/**
+	 * @param level - The index of the contour in levels.
+	 * @return The coordinates of the contour's vertices, two per vertex, polyline after polyline.
+	 */
+	public float[] getVertices(int level)
+	{
+		return vertices[level];
+	}
+
+	/**
+	 * @param level - The index of the contour in levels.
+	 * @return The index of each polyline's first vertex, followed by the number of vertices.
+	 */
+	public int[] getStarts(int level)
+	{
+		return starts[level];
+	}
+
+	/**
+	 * @param level - The index of the contour in levels.
+	 * @return The contour alone, sharing its arrays with this set.
+	 */
+	public ContourPolylines getLevel(int level)
+	{
+		ContourPolylines contour = new ContourPolylines(new double[]{levels[level]});
+		contour.vertices[0] = vertices[level];
+		contour.starts[0] = starts[level];
+		return contour;
+	}
+
+	/**
+	 * Gathers single contours, such as those from getLevel, into one set, sharing their arrays.
+	 * @param contours - The contours, each holding one level.
+	 * @return The contours, in the order given.
+	 */
+	public static ContourPolylines combine(ContourPolylines[] contours)
+	{
+		double[] levels = new double[contours.length];
+		for (int i = 0; i < contours.length; i++)
+			levels[i] = contours[i].levels[0];
+		ContourPolylines combined = new ContourPolylines(levels);
+		for (int i = 0; i < contours.length; i++)
+		{
+			combined.vertices[i] = contours[i].vertices[0];
+			combined.starts[i] = contours[i].starts[0];
+		}
+		return combined;
+	}
+
+	/**
+	 * @return The approximate size of the contours' arrays, in bytes.
+	 */
+	public long getBytes()
+	{
+		long total = 0;
+		for (int level = 0; level < levels.length; level++)
+			total += 4L*vertices[level].length + 4L*starts[level].length;
+		return total;
+	}
+
+	/**
+	 * @return The number of vertices in all the contours.
+	 */
+	public long getTotalVertices()
+	{
+		long total = 0;
+		for (float[] coords : vertices)
+			total += coords.length/2;
+		return total;
+	}
+
+	/**
+	 * StitchTask splits a range of contours in half until it holds a single contour, which it
+	 * then stitches.
+	 */
+	private static class StitchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final ContourSet contours;
+		private final ContourPolylines polylines;
+		private final int firstLevel, endLevel;
+
+		StitchTask(ContourSet contours, ContourPolylines polylines, int firstLevel, int endLevel)
+		{
+			this.contours = contours;
+			this.polylines = polylines;
+			this.firstLevel = firstLevel;
+			this.endLevel = endLevel;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (endLevel-firstLevel == 1)
+			{
+				polylines.stitchLevel(contours, firstLevel);
+				return;
+			}
+			int midLevel = (firstLevel+endLevel) >>> 1;
+			invokeAll(new StitchTask(contours, polylines, firstLevel, midLevel),
+					  new StitchTask(contours, polylines, midLevel, endLevel));
+		}
+	}
+}
@@ -0,0 +1,159 @@
+import java.util.Arrays;
+
+/**
+ * ContourSet holds the line segments of a set of contours, as extracted from a height grid.
+ * Each contour level keeps its segments in one flat float array, four coordinates per segment
+ * (x0, y0, x1, y1), in units of cells: x is the column and y the row, with row 0 being the
+ * northernmost, as in the grid. A point at (2.5, 3) lies halfway between cells (2, 3) and (3, 3).
+ *
+ * Each end of a segment also records the key of the grid edge it lies on, so that segments
+ * meeting on the same edge can be stitched into polylines (see ContourPolylines).
+ * The edge from point (x, y) to (x+1, y) has the key 2*(y*numColumns+x), and the edge from
+ * (x, y) to (x, y+1) has the key 2*(y*numColumns+x)+1.
+ */
+public class ContourSet
+{
+	private static final int INITIAL_SEGMENTS = 64;
+
+	public final double[] levels;
+	private final float[][] coordinates;
+	private final long[][] edges;
+	private final int[] numSegments;
+
+	/**
+	 * Creates an empty set of contours.
+	 * @param levels - The elevation of each contour.
+	 */
+	public ContourSet(double[] levels)
+	{
+		this.levels = levels.clone();
+		coordinates = new float[levels.length][];
+		edges = new long[levels.length][];
+		numSegments = new int[levels.length];
+	}
+
+	/**
+	 * @return The key of the edge from point (x, y) to (x+1, y), in a grid of the given width.
+	 */
+	public static long getRowEdge(int x, int y, int numColumns)
+	{
+		return 2*((long)y*numColumns + x);
+	}
+
+	/**
+	 * @return The key of the edge from point (x, y) to (x, y+1), in a grid of the given width.
+	 */
+	public static long getColumnEdge(int x, int y, int numColumns)
+	{
+		return 2*((long)y*numColumns + x) + 1;
+	}
+
+	/**
+	 * Adds a segment to a contour, growing its arrays as needed.
+	 * @param level - The index of the contour in levels.
+	 * @param x0 - The column of the segment's first end.
+	 * @param y0 - The row of the segment's first end.
+	 * @param x1 - The column of the segment's second end.
+	 * @param y1 - The row of the segment's second end.
+	 * @param edge0 - The key of the edge the first end lies on.
+	 * @param edge1 - The key of the edge the second end lies on.
+	 */
+	public void addSegment(int level, float x0, float y0, float x1, float y1, long edge0, long edge1)
+	{
+		float[] coords = coordinates[level];
+		long[] ends = edges[level];
+		int i = numSegments[level];
+		if(coords == null)
+		{
+			coords = coordinates[level] = new float[4*INITIAL_SEGMENTS];
+			ends = edges[level] = new long[2*INITIAL_SEGMENTS];
+		}
+		else if(4*i == coords.length)
+		{
+			coords = coordinates[level] = Arrays.copyOf(coords, 2*coords.length);
+			ends = edges[level] = Arrays.copyOf(ends, 2*ends.length);
+		}
+		coords[4*i] = x0;
+		coords[4*i+1] = y0;
+		coords[4*i+2] = x1;
+		coords[4*i+3] = y1;
+		ends[2*i] = edge0;
+		ends[2*i+1] = edge1;
+		numSegments[level]++;
+	}
+
+	/**
+	 * @param level - The index of the contour in levels.
+	 * @return The number of segments in the contour.
+	 */
+	public int getNumSegments(int level)
+	{
+		return numSegments[level];
+	}
+
+	/**
+	 * Returns the segments of a contour. The array may be longer than the segments in it.
+	 * @param level - The index of the contour in levels.
+	 * @return The coordinates of the segments, four per segment, or an empty array if the
+	 *         contour has none.
+	 */
+	public float[] getCoordinates(int level)
+	{
+		return coordinates[level] == null ? new float[0] : coordinates[level];
+	}
+
+	/**
+	 * Returns the keys of the edges the ends of a contour's segments lie on. The array may be
+	 * longer than the segments in it.
+	 * @param level - The index of the contour in levels.
+	 * @return The edge keys, two per segment, or an empty array if the contour has none.
+	 */
+	public long[] getEdges(int level)
+	{
+		return edges[level] == null ? new long[0] : edges[level];
+	}
+
+	/**
+	 * Appends the segments of another set with the same levels to this one, contour by contour,
+	 * after this set's own segments. The other set may share arrays with this one afterwards,
+	 * and should be discarded.
+	 * @param other - The set to append.
+	 */
+	public void append(ContourSet other)
+	{
+		for (int level = 0; level < levels.length; level++)
+		{
+			int count = other.numSegments[level];
+			if(count == 0) continue;
+			if(numSegments[level] == 0)
+			{
+				coordinates[level] = other.coordinates[level];
+				edges[level] = other.edges[level];
+			}
+			else
+			{
+				int used = numSegments[level];
+				if(4*(used + count) > coordinates[level].length)
+				{
+					int capacity = Math.max(2*used, used + count);
+					coordinates[level] = Arrays.copyOf(coordinates[level], 4*capacity);
+					edges[level] = Arrays.copyOf(edges[level], 2*capacity);
+				}
+				System.arraycopy(other.coordinates[level], 0, coordinates[level], 4*used, 4*count);
+				System.arraycopy(other.edges[level], 0, edges[level], 2*used, 2*count);
+			}
+			numSegments[level] += count;
+		}
+	}
+
+	/**
+	 * @return The number of segments in all the contours.
+	 */
+	public long getTotalSegments()
+	{
+		long total = 0;
+		for (int count : numSegments)
+			total += count;
+		return total;
+	}
+}
@@ -0,0 +1,137 @@
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import javax.swing.JComponent;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+
+/**
+ * DatasetLoader loads a GridFloat dataset on a background thread, so that the viewers stay
+ * responsive while large files are read. Progress is shown on a JProgressBar, and the load can
+ * be abandoned with cancel(true). Subclasses receive the finished dataset on the Swing event
+ * dispatch thread. The loader can also quantize the dataset's heights to 16 bits once it is read.
+ */
+public abstract class DatasetLoader extends SwingWorker<GridFloatReader, Void> implements LoadProgress
+{
+	private final String prefix;
+	private final boolean quantizeHeights;
+	private volatile String step = "Loading";
+
+	/**
+	 * Creates a loader for a dataset. Call execute to start it.
+	 * @param prefix - The filename (minus extension) for the GridFloat data to be read in.
+	 * @param progressBar - The bar to show progress on, which is shown while the load runs. A bar
+	 *                      only follows the most recently created loader using it.
+	 * @param cancelControl - The control that cancels the load, which is enabled while the load runs.
+	 */
+	public DatasetLoader(String prefix, final JProgressBar progressBar, final JComponent cancelControl)
+	{
+		this(prefix, false, progressBar, cancelControl);
+	}
+
+	/**
+	 * Creates a loader for a dataset, which may quantize its heights. Call execute to start it.
+	 * @see #DatasetLoader(String, JProgressBar, JComponent)
+	 * @param quantizeHeights - Whether to store the loaded heights as 16-bit values.
+	 */
+	public DatasetLoader(String prefix, boolean quantizeHeights, final JProgressBar progressBar, final JComponent cancelControl)
+	{
+		this.prefix = prefix;
+		this.quantizeHeights = quantizeHeights;
+		progressBar.putClientProperty(DatasetLoader.class, this);
+		progressBar.setValue(0);
+		progressBar.setString("Loading "+prefix);
+		progressBar.setStringPainted(true);
+		progressBar.setVisible(true);
+		cancelControl.setEnabled(true);
+		addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent event) {
+				if(progressBar.getClientProperty(DatasetLoader.class) != DatasetLoader.this)
+					return;
+				if("progress".equals(event.getPropertyName()))
+				{
+					progressBar.setValue((Integer)event.getNewValue());
+					progressBar.setString(step+" ("+event.getNewValue()+"%)");
+				}
+				else if("state".equals(event.getPropertyName()) && event.getNewValue() == StateValue.DONE)
+				{
+					progressBar.setVisible(false);
+					cancelControl.setEnabled(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return The filename (minus extension) of the dataset being loaded.
+	 */
+	public String getPrefix()
+	{
+		return prefix;
+	}
+
+	@Override
+	protected GridFloatReader doInBackground() throws IOException
+	{
+		GridFloatReader data = read();
+		if(data.height == null)
+			throw new IOException("No heights could be read from "+prefix+".");
+		if(quantizeHeights)
+		{
+			update("Quantizing heights", 0);
+			data.quantizeHeights();
+		}
+		return data;
+	}
+
+	/**
+	 * Reads the dataset, on the background thread. Subclasses may override this to read the
+	 * dataset some other way, reporting progress through update.
+	 * @return The dataset.
+	 */
+	protected GridFloatReader read()
+	{
+		return GridFloatReader.load(prefix, this);
+	}
+
+	@Override
+	public void update(String step, double fraction)
+	{
+		if(isCancelled())
+			throw new CancellationException(prefix+" was cancelled.");
+		this.step = step;
+		setProgress((int)Math.max(0, Math.min(100, Math.round(100*fraction))));
+	}
+
+	@Override
+	protected void done()
+	{
+		try
+		{
+			loaded(get());
+		}
+		catch(CancellationException e)
+		{
+			System.out.println(prefix+" was cancelled.");
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch(ExecutionException e)
+		{
+			System.err.println(prefix+" could not be loaded.");
+			e.getCause().printStackTrace();
+		}
+	}
+
+	/**
+	 * Called on the event dispatch thread once the dataset has been loaded, unless the load
+	 * was cancelled or failed, including when no heights could be read.
+	 * @param data - The loaded dataset.
+	 */
+	protected abstract void loaded(GridFloatReader data);
+}
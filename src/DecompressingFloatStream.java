@@ -0,0 +1,184 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * DecompressingFloatStream reads the floats of a compressed GridFloat data file. A background
+ * thread inflates the compressed stream into fixed-size chunks of bytes and passes them to the
+ * reading thread through a bounded queue, so that decompression overlaps with the conversion
+ * of the bytes to floats and whatever the reader does with them. The chunks are recycled, so
+ * only a few of them are ever allocated.
+ */
+public class DecompressingFloatStream
+{
+	//Chunks are a multiple of 4 bytes, so that no float is split between two of them.
+	private static final int CHUNK_BYTES = 1<<20;
+	private static final int QUEUE_CHUNKS = 4;
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	private final InputStream input;
+	private final ByteOrder byteOrder;
+	private final BlockingQueue<ByteBuffer> filledChunks = new ArrayBlockingQueue<ByteBuffer>(QUEUE_CHUNKS+1);
+	private final BlockingQueue<ByteBuffer> emptyChunks = new ArrayBlockingQueue<ByteBuffer>(QUEUE_CHUNKS);
+	private final Thread inflater;
+	private volatile IOException failure;
+	private ByteBuffer chunk;
+	private FloatBuffer floats;
+
+	/**
+	 * Starts inflating a compressed stream on a background thread.
+	 * @param input - The decompressing stream to read, which is closed along with this one.
+	 * @param byteOrder - The byte order of the floats in the stream.
+	 */
+	public DecompressingFloatStream(InputStream input, ByteOrder byteOrder)
+	{
+		this.input = input;
+		this.byteOrder = byteOrder;
+		for (int i = 0; i < QUEUE_CHUNKS; i++)
+			emptyChunks.add(ByteBuffer.allocate(CHUNK_BYTES));
+		inflater = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				inflate();
+			}
+		}, "GridFloat inflater");
+		inflater.setDaemon(true);
+		inflater.start();
+	}
+
+	/**
+	 * Fills each empty chunk from the input and queues it, until the input ends or fails.
+	 * Runs on the inflater thread.
+	 */
+	private void inflate()
+	{
+		try
+		{
+			while(true)
+			{
+				ByteBuffer next = emptyChunks.take();
+				byte[] bytes = next.array();
+				int length = 0;
+				int read = 0;
+				while(length < bytes.length && (read = input.read(bytes, length, bytes.length-length)) >= 0)
+					length += read;
+				next.clear();
+				next.limit(length);
+				if(length > 0)
+					filledChunks.put(next);
+				if(read < 0)
+					break;
+			}
+		}
+		catch(IOException e)
+		{
+			failure = e;
+		}
+		catch(InterruptedException e)
+		{
+			return;
+		}
+		try
+		{
+			filledChunks.put(END);
+		}
+		catch(InterruptedException e)
+		{
+		}
+	}
+
+	/**
+	 * Reads floats from the stream, waiting for them to be inflated if need be.
+	 * @param dest - The array to store the floats in.
+	 * @param offset - The position in dest for the first float.
+	 * @param count - The number of floats to read.
+	 * @throws IOException If the input cannot be read, or ends before count floats.
+	 * @throws InterruptedIOException If the thread is interrupted while waiting.
+	 */
+	public void read(float[] dest, int offset, int count) throws IOException
+	{
+		while(count > 0)
+		{
+			if(!nextChunk())
+				throw new EOFException("The compressed data ended "+count+" floats early.");
+			int n = Math.min(count, floats.remaining());
+			floats.get(dest, offset, n);
+			offset += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Skips floats in the stream. They still have to be inflated.
+	 * @param count - The number of floats to skip.
+	 * @throws IOException If the input cannot be read, or ends before count floats.
+	 * @throws InterruptedIOException If the thread is interrupted while waiting.
+	 */
+	public void skip(long count) throws IOException
+	{
+		while(count > 0)
+		{
+			if(!nextChunk())
+				throw new EOFException("The compressed data ended "+count+" floats early.");
+			int n = (int)Math.min(count, floats.remaining());
+			floats.position(floats.position()+n);
+			count -= n;
+		}
+	}
+
+	/**
+	 * Makes sure there is a float left in the current chunk, recycling it and taking the next
+	 * one from the queue once it is used up.
+	 * @return false if the stream has ended.
+	 */
+	private boolean nextChunk() throws IOException
+	{
+		if(floats != null && floats.hasRemaining())
+			return true;
+		if(chunk == END)
+			return false;
+		if(chunk != null)
+			emptyChunks.add(chunk);
+		try
+		{
+			chunk = filledChunks.take();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for compressed data.");
+		}
+		if(chunk == END)
+		{
+			floats = null;
+			if(failure != null)
+				throw failure;
+			return false;
+		}
+		floats = chunk.order(byteOrder).asFloatBuffer();
+		return true;
+	}
+
+	/**
+	 * Stops the inflater thread and closes the input.
+	 */
+	public void close() throws IOException
+	{
+		inflater.interrupt();
+		try
+		{
+			inflater.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		input.close();
+	}
+}
@@ -0,0 +1,174 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Downsampler reduces a height grid by combining each factor X factor block of cells into one
+ * cell of a new, smaller grid. Blocks can be averaged, for a faithful overall surface, or
+ * reduced to their lowest or highest cell, so that pits or peaks and ridges survive the
+ * reduction rather than being smoothed away. Empty cells are left out of every block, and a
+ * block with no data at all becomes empty. Blocks along the right and bottom edges may be
+ * smaller than the rest.
+ */
+public class Downsampler
+{
+	/**
+	 * Filter is the way the cells of a block are combined.
+	 */
+	public enum Filter
+	{
+		BOX("Average"), MIN("Minimum"), MAX("Maximum");
+
+		private final String label;
+
+		private Filter(String label)
+		{
+			this.label = label;
+		}
+
+		@Override
+		public String toString()
+		{
+			return label;
+		}
+	}
+
+	//The number of output rows below which a band is reduced serially rather than split.
+	private static final int ROWS_PER_BAND = 16;
+
+	/**
+	 * Reduces a grid. Bands of output rows are reduced in parallel on the common fork-join pool.
+	 * @param grid - The grid to reduce.
+	 * @param noData - The value marking empty cells.
+	 * @param factor - The number of cells along each axis to combine into one.
+	 * @param filter - How to combine the cells of each block.
+	 * @return The reduced grid.
+	 */
+	public static HeightGrid reduce(HeightGrid grid, float noData, int factor, Filter filter)
+	{
+		if(factor < 1)
+			throw new IllegalArgumentException("Downsampling factor must be at least 1, not "+factor+".");
+		HeightGrid reduced = new HeightGrid((grid.numColumns+factor-1)/factor, (grid.numRows+factor-1)/factor);
+		ForkJoinPool.commonPool().invoke(new ReduceTask(grid, reduced, noData, factor, filter, 0, reduced.numRows));
+		return reduced;
+	}
+
+	/**
+	 * Reduces a band of rows of a grid into the corresponding rows of the reduced grid. Each
+	 * output row gathers its input rows, one at a time, into a row of running sums, or
+	 * extremes, and counts, so that the input is read in order.
+	 * @param grid - The grid to reduce.
+	 * @param reduced - The grid to store the result in.
+	 * @param noData - The value marking empty cells.
+	 * @param factor - The number of cells along each axis to combine into one.
+	 * @param filter - How to combine the cells of each block.
+	 * @param firstRow - The first output row of the band.
+	 * @param endRow - The output row after the end of the band.
+	 */
+	private static void reduceRows(HeightGrid grid, HeightGrid reduced, float noData, int factor, Filter filter,
+								   int firstRow, int endRow)
+	{
+		int columns = grid.numColumns;
+		float[] data = grid.isQuantized() ? null : grid.getData();
+		float[] row = data != null ? data : new float[columns];
+		double[] sums = new double[reduced.numColumns];
+		float[] extremes = new float[reduced.numColumns];
+		int[] counts = new int[reduced.numColumns];
+		float initial = filter == Filter.MIN ? Float.POSITIVE_INFINITY : Float.NEGATIVE_INFINITY;
+		for (int y = firstRow; y < endRow; y++)
+		{
+			Arrays.fill(sums, 0);
+			Arrays.fill(extremes, initial);
+			Arrays.fill(counts, 0);
+			for (int inY = y*factor; inY < Math.min((y+1)*factor, grid.numRows); inY++)
+			{
+				//Quantized grids are decoded a row at a time.
+				int rowStart = inY*columns;
+				if(data == null)
+				{
+					rowStart = 0;
+					for (int x = 0; x < columns; x++)
+						row[x] = grid.get(x, inY);
+				}
+				if(filter == Filter.BOX)
+				{
+					for (int out = 0, x = rowStart; out < sums.length; out++)
+					{
+						double sum = sums[out];
+						int count = counts[out];
+						for (int end = Math.min(x+factor, rowStart+columns); x < end; x++)
+						{
+							float value = row[x];
+							if(value == noData) continue;
+							sum += value;
+							count++;
+						}
+						sums[out] = sum;
+						counts[out] = count;
+					}
+				}
+				else
+				{
+					boolean min = filter == Filter.MIN;
+					for (int out = 0, x = rowStart; out < extremes.length; out++)
+					{
+						float extreme = extremes[out];
+						int count = counts[out];
+						for (int end = Math.min(x+factor, rowStart+columns); x < end; x++)
+						{
+							float value = row[x];
+							if(value == noData) continue;
+							if(min ? value < extreme : value > extreme) extreme = value;
+							count++;
+						}
+						extremes[out] = extreme;
+						counts[out] = count;
+					}
+				}
+			}
+			for (int x = 0; x < reduced.numColumns; x++)
+			{
+				float result = filter == Filter.BOX ? (float)(sums[x]/counts[x]) : extremes[x];
+				reduced.set(x, y, counts[x] > 0 ? result : noData);
+			}
+		}
+	}
+
+	/**
+	 * ReduceTask splits the output rows of a reduction into bands, halving them until they
+	 * are small enough to reduce directly.
+	 */
+	private static class ReduceTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final HeightGrid grid, reduced;
+		private final float noData;
+		private final int factor;
+		private final Filter filter;
+		private final int firstRow, endRow;
+
+		ReduceTask(HeightGrid grid, HeightGrid reduced, float noData, int factor, Filter filter, int firstRow, int endRow)
+		{
+			this.grid = grid;
+			this.reduced = reduced;
+			this.noData = noData;
+			this.factor = factor;
+			this.filter = filter;
+			this.firstRow = firstRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (endRow-firstRow <= ROWS_PER_BAND)
+			{
+				reduceRows(grid, reduced, noData, factor, filter, firstRow, endRow);
+				return;
+			}
+			int midRow = (firstRow+endRow) >>> 1;
+			invokeAll(new ReduceTask(grid, reduced, noData, factor, filter, firstRow, midRow),
+					  new ReduceTask(grid, reduced, noData, factor, filter, midRow, endRow));
+		}
+	}
+}
@@ -0,0 +1,161 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ElevationHistogram counts the non-empty cells of a grid in equal-width elevation bins,
+ * starting at the grid's minimum elevation. The bins are fine enough that quantiles read from
+ * them, such as the elevations below which 1% or 99% of the cells lie, are within a small
+ * fraction of a meter for typical terrain.
+ */
+public class ElevationHistogram
+{
+	public static final int DEFAULT_BINS = 16384;
+	//The number of cells below which a band is counted serially rather than split.
+	private static final int CELLS_PER_BAND = 1<<20;
+	public final double minHeight, binWidth;
+	public final long[] counts;
+
+	/**
+	 * @param minHeight - The elevation at the start of the first bin.
+	 * @param binWidth - The width of each bin, in elevation units.
+	 * @param counts - The number of cells in each bin.
+	 */
+	public ElevationHistogram(double minHeight, double binWidth, long[] counts)
+	{
+		this.minHeight = minHeight;
+		this.binWidth = binWidth;
+		this.counts = counts;
+	}
+
+	/**
+	 * Counts the cells of a grid into DEFAULT_BINS bins spanning its elevation range. Bands of
+	 * the grid are counted in parallel on the common fork-join pool, and their counts summed.
+	 * @param grid - The grid to count.
+	 * @param noData - The value marking empty cells, which are not counted.
+	 * @param minHeight - The lowest elevation in the grid.
+	 * @param maxHeight - The highest elevation in the grid.
+	 * @return The histogram.
+	 */
+	public static ElevationHistogram compute(HeightGrid grid, float noData, double minHeight, double maxHeight)
+	{
+		double binWidth = maxHeight > minHeight ? (maxHeight-minHeight)/DEFAULT_BINS : 1.;
+		long[] counts = ForkJoinPool.commonPool().invoke(new CountTask(grid, noData, minHeight, binWidth, 0, grid.numColumns*grid.numRows));
+		return new ElevationHistogram(minHeight, binWidth, counts);
+	}
+
+	/**
+	 * @param elevation - An elevation.
+	 * @return The bin that the elevation falls in, clamped to the range of bins.
+	 */
+	public int getBin(double elevation)
+	{
+		int bin = (int)((elevation-minHeight)/binWidth);
+		return Math.max(0, Math.min(counts.length-1, bin));
+	}
+
+	/**
+	 * @param bin - A bin number.
+	 * @return The elevation at the start of the bin.
+	 */
+	public double getBinStart(int bin)
+	{
+		return minHeight + bin*binWidth;
+	}
+
+	/**
+	 * @return The number of cells counted.
+	 */
+	public long getTotal()
+	{
+		long total = 0;
+		for (long count : counts)
+			total += count;
+		return total;
+	}
+
+	/**
+	 * Estimates the elevation below which a given fraction of the cells lie, assuming the cells
+	 * in each bin are spread evenly across it. The estimate is within one bin of the true value.
+	 * @param fraction - The fraction of cells, from 0 to 1.
+	 * @return The elevation, or minHeight if no cells were counted.
+	 */
+	public double getQuantile(double fraction)
+	{
+		double target = Math.max(0, Math.min(1, fraction))*getTotal();
+		long below = 0;
+		for (int bin = 0; bin < counts.length; bin++)
+		{
+			if(counts[bin] > 0 && below+counts[bin] >= target)
+				return getBinStart(bin) + binWidth*(target-below)/counts[bin];
+			below += counts[bin];
+		}
+		return minHeight;
+	}
+
+	/**
+	 * CountTask splits a range of cells into bands, halving it until it is small enough to count
+	 * directly, then adds the counts of the two halves together.
+	 */
+	private static class CountTask extends RecursiveTask<long[]>
+	{
+		private static final long serialVersionUID = 1L;
+		private final HeightGrid grid;
+		private final float noData;
+		private final double minHeight, binWidth;
+		private final int first, end;
+
+		CountTask(HeightGrid grid, float noData, double minHeight, double binWidth, int first, int end)
+		{
+			this.grid = grid;
+			this.noData = noData;
+			this.minHeight = minHeight;
+			this.binWidth = binWidth;
+			this.first = first;
+			this.end = end;
+		}
+
+		@Override
+		protected long[] compute()
+		{
+			if (end-first <= CELLS_PER_BAND)
+			{
+				//Count into ints, multiplying by the inverse bin width, which is much faster
+				//than dividing; a band has too few cells to overflow them.
+				int[] bandCounts = new int[DEFAULT_BINS];
+				double binsPerHeight = 1./binWidth;
+				//Quantized grids are decoded a band at a time.
+				float[] data;
+				int start = first;
+				if(grid.isQuantized())
+				{
+					data = new float[end-first];
+					grid.getCells(first, data, 0, end-first);
+					start = 0;
+				}
+				else
+					data = grid.getData();
+				for (int i = start; i < start+end-first; i++)
+				{
+					float value = data[i];
+					if (value == noData) continue;
+					int bin = (int)((value-minHeight)*binsPerHeight);
+					if (bin >= DEFAULT_BINS) bin = DEFAULT_BINS-1;
+					else if (bin < 0) bin = 0;
+					bandCounts[bin]++;
+				}
+				long[] counts = new long[DEFAULT_BINS];
+				for (int bin = 0; bin < DEFAULT_BINS; bin++)
+					counts[bin] = bandCounts[bin];
+				return counts;
+			}
+			int mid = (first+end) >>> 1;
+			CountTask upper = new CountTask(grid, noData, minHeight, binWidth, mid, end);
+			upper.fork();
+			long[] counts = new CountTask(grid, noData, minHeight, binWidth, first, mid).compute();
+			long[] upperCounts = upper.join();
+			for (int bin = 0; bin < counts.length; bin++)
+				counts[bin] += upperCounts[bin];
+			return counts;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * GridFloatCache reads and writes a binary sidecar file (prefix.gfc) next to a GridFloat dataset.
+ * The sidecar holds the parsed header, the statistics, the elevation histogram, and the reduced
+ * levels of the overview pyramid, so that reopening a dataset only has to load its data file.
+ * A sidecar is only used while the sizes and modification times of the .hdr and .flt files (or
+ * the compressed files holding them) match those recorded in it.
+ */
+public class GridFloatCache
+{
+	public static final String EXTENSION = ".gfc";
+	private static final int MAGIC = 0x4e4d5643; //"NMVC"
+	private static final int VERSION = 2;
+	private static final int FIXED_HEADER_BYTES = 256;
+	private static final int FLOAT_CHUNK = 1<<16;
+
+	/**
+	 * Fills in a reader's header fields, statistics, histogram, and overview levels from the
+	 * dataset's sidecar, if a valid one exists. The returned pyramid has no level 0, which is
+	 * left for the caller to fill in once the data file has been loaded.
+	 * @param reader - The reader to fill in.
+	 * @param prefix - The filename (minus extension) for the GridFloat data.
+	 * @return The cached overview levels, or null if there is no valid sidecar.
+	 */
+	public static HeightGrid[] read(GridFloatReader reader, String prefix)
+	{
+		File cacheFile = new File(prefix+EXTENSION);
+		if(!cacheFile.exists()) return null;
+		try(FileInputStream cacheStream = new FileInputStream(cacheFile);
+			FileChannel cacheChannel = cacheStream.getChannel())
+		{
+			ByteBuffer buffer = cacheChannel.map(FileChannel.MapMode.READ_ONLY, 0, cacheChannel.size());
+			HeightGrid[] levels = null;
+			if(buffer.getInt() == MAGIC && buffer.getInt() == VERSION && readStamp(buffer, prefix))
+			{
+				reader.fileColumns = buffer.getInt();
+				reader.fileRows = buffer.getInt();
+				reader.noData = buffer.getInt();
+				reader.bigEndian = buffer.get() != 0;
+				reader.cellSize = buffer.getDouble();
+				reader.fileXLowerLeftCorner = buffer.getDouble();
+				reader.fileYLowerLeftCorner = buffer.getDouble();
+
+				reader.maxHeight = buffer.getDouble();
+				reader.minHeight = buffer.getDouble();
+				reader.avgHeight = buffer.getDouble();
+				reader.numCells = buffer.getLong();
+				reader.numEmptyCells = buffer.getLong();
+				reader.maxHeightXIdx = buffer.getInt();
+				reader.maxHeightYIdx = buffer.getInt();
+				reader.minHeightXidx = buffer.getInt();
+				reader.minHeightYIdx = buffer.getInt();
+
+				double histogramMin = buffer.getDouble();
+				double binWidth = buffer.getDouble();
+				long[] counts = new long[buffer.getInt()];
+				buffer.asLongBuffer().get(counts);
+				buffer.position(buffer.position()+8*counts.length);
+				reader.histogram = new ElevationHistogram(histogramMin, binWidth, counts);
+
+				levels = new HeightGrid[buffer.getInt()];
+				int[] dimensions = new int[2*levels.length];
+				for(int i = 1; i < levels.length; i++)
+				{
+					dimensions[2*i] = buffer.getInt();
+					dimensions[2*i+1] = buffer.getInt();
+				}
+				FloatBuffer floats = buffer.asFloatBuffer();
+				for(int i = 1; i < levels.length; i++)
+				{
+					levels[i] = new HeightGrid(dimensions[2*i], dimensions[2*i+1]);
+					floats.get(levels[i].getData());
+				}
+			}
+			return levels;
+		}
+		catch(IOException e)
+		{
+			System.err.println(cacheFile+" could not be read; the dataset will be scanned instead.");
+			e.printStackTrace();
+			return null;
+		}
+		catch(RuntimeException e)
+		{
+			System.err.println(cacheFile+" is damaged; the dataset will be scanned instead.");
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the sidecar for a fully-loaded reader.
+	 * @param reader - The reader to save the header and statistics of.
+	 * @param prefix - The filename (minus extension) for the GridFloat data.
+	 */
+	public static void write(GridFloatReader reader, String prefix)
+	{
+		File cacheFile = new File(prefix+EXTENSION);
+		try
+		{
+			OverviewPyramid overviews = reader.getOverviews();
+			ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_BYTES + 8*reader.histogram.counts.length + 8*overviews.getNumLevels());
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			writeStamp(header, prefix);
+			header.putInt(reader.fileColumns);
+			header.putInt(reader.fileRows);
+			header.putInt(reader.noData);
+			header.put((byte)(reader.bigEndian ? 1 : 0));
+			header.putDouble(reader.cellSize);
+			header.putDouble(reader.fileXLowerLeftCorner);
+			header.putDouble(reader.fileYLowerLeftCorner);
+
+			header.putDouble(reader.maxHeight);
+			header.putDouble(reader.minHeight);
+			header.putDouble(reader.avgHeight);
+			header.putLong(reader.numCells);
+			header.putLong(reader.numEmptyCells);
+			header.putInt(reader.maxHeightXIdx);
+			header.putInt(reader.maxHeightYIdx);
+			header.putInt(reader.minHeightXidx);
+			header.putInt(reader.minHeightYIdx);
+
+			header.putDouble(reader.histogram.minHeight);
+			header.putDouble(reader.histogram.binWidth);
+			header.putInt(reader.histogram.counts.length);
+			for(long count : reader.histogram.counts)
+				header.putLong(count);
+
+			header.putInt(overviews.getNumLevels());
+			for(int i = 1; i < overviews.getNumLevels(); i++)
+			{
+				header.putInt(overviews.getLevel(i).numColumns);
+				header.putInt(overviews.getLevel(i).numRows);
+			}
+			header.flip();
+
+			try(FileOutputStream cacheStream = new FileOutputStream(cacheFile);
+				FileChannel cacheChannel = cacheStream.getChannel())
+			{
+				while(header.hasRemaining())
+					cacheChannel.write(header);
+				ByteBuffer chunk = ByteBuffer.allocateDirect(4*FLOAT_CHUNK);
+				for(int i = 1; i < overviews.getNumLevels(); i++)
+				{
+					float[] data = overviews.getLevel(i).getData();
+					for(int offset = 0; offset < data.length; offset += FLOAT_CHUNK)
+					{
+						chunk.clear();
+						chunk.asFloatBuffer().put(data, offset, Math.min(FLOAT_CHUNK, data.length-offset));
+						chunk.limit(4*Math.min(FLOAT_CHUNK, data.length-offset));
+						while(chunk.hasRemaining())
+							cacheChannel.write(chunk);
+					}
+				}
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println(cacheFile+" could not be written.");
+			e.printStackTrace();
+			cacheFile.delete();
+		}
+	}
+
+	/**
+	 * Writes the sizes and modification times of the dataset's header and data files.
+	 */
+	private static void writeStamp(ByteBuffer buffer, String prefix)
+	{
+		File headerFile = GridFloatReader.findInput(prefix, ".hdr");
+		File dataFile = GridFloatReader.findInput(prefix, ".flt");
+		buffer.putLong(headerFile.length());
+		buffer.putLong(headerFile.lastModified());
+		buffer.putLong(dataFile.length());
+		buffer.putLong(dataFile.lastModified());
+	}
+
+	/**
+	 * Checks the recorded sizes and modification times against the dataset's current files.
+	 * @return true if the files are unchanged since the sidecar was written.
+	 */
+	private static boolean readStamp(ByteBuffer buffer, String prefix)
+	{
+		File headerFile = GridFloatReader.findInput(prefix, ".hdr");
+		File dataFile = GridFloatReader.findInput(prefix, ".flt");
+		return buffer.getLong() == headerFile.length()
+			&& buffer.getLong() == headerFile.lastModified()
+			&& buffer.getLong() == dataFile.length()
+			&& buffer.getLong() == dataFile.lastModified();
+	}
+}
@@ -0,0 +1,135 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * GridFloatExtent describes where a GridFloat tile lies and how it is laid out, as given by its
+ * .hdr and .prj files. Probing a tile reads only those two small files, never the data file, so
+ * that large collections of tiles can be catalogued quickly. Extents are immutable, and so can be
+ * shared between threads.
+ */
+public final class GridFloatExtent
+{
+	public final String prefix;
+	public final int numColumns, numRows, noData;
+	public final boolean bigEndian;
+	public final double cellSize;
+	public final double minLat, maxLat, minLong, maxLong;
+	public final String projection, datum;
+
+	private GridFloatExtent(String prefix, int numColumns, int numRows, int noData, boolean bigEndian,
+			double cellSize, double xLowerLeftCorner, double yLowerLeftCorner, String projection, String datum)
+	{
+		this.prefix = prefix;
+		this.numColumns = numColumns;
+		this.numRows = numRows;
+		this.noData = noData;
+		this.bigEndian = bigEndian;
+		this.cellSize = cellSize;
+		this.minLong = xLowerLeftCorner;
+		this.minLat = yLowerLeftCorner;
+		this.maxLong = xLowerLeftCorner + cellSize*numColumns;
+		this.maxLat = yLowerLeftCorner + cellSize*numRows;
+		this.projection = projection;
+		this.datum = datum;
+	}
+
+	/**
+	 * Reads the extent of a tile from its header file, and its projection from its project file
+	 * if it has one. Either may be gzipped or inside the tile's zip archive.
+	 * @param prefix - The filename (minus extension) for the GridFloat data.
+	 * @return The extent of the tile.
+	 * @throws IOException If the header file cannot be read, or lacks a required item.
+	 */
+	public static GridFloatExtent probe(String prefix) throws IOException
+	{
+		Map<String,String> header = readProperties(prefix, ".hdr");
+		Map<String,String> project;
+		try
+		{
+			project = readProperties(prefix, ".prj");
+		}
+		catch(FileNotFoundException e)
+		{
+			project = new HashMap<String,String>();
+		}
+		try
+		{
+			return new GridFloatExtent(prefix,
+					Integer.parseInt(require(header, "ncols", prefix)),
+					Integer.parseInt(require(header, "nrows", prefix)),
+					Integer.parseInt(require(header, "nodata_value", prefix)),
+					"MSBFIRST".equalsIgnoreCase(header.get("byteorder")), //Java is most-significant bit first.
+					Double.parseDouble(require(header, "cellsize", prefix)),
+					Double.parseDouble(require(header, "xllcorner", prefix)),
+					Double.parseDouble(require(header, "yllcorner", prefix)),
+					project.get("projection"),
+					project.get("datum"));
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IOException(prefix+".hdr is malformed: "+e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Reads the "name value" lines of one of a tile's text files. Names are made lower case.
+	 */
+	private static Map<String,String> readProperties(String prefix, String extension) throws IOException
+	{
+		Map<String,String> properties = new HashMap<String,String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(GridFloatReader.openInput(prefix, extension)));
+		try
+		{
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				String[] item = line.trim().split("\\s+", 2);
+				if(item[0].length() > 0)
+					properties.put(item[0].toLowerCase(), item.length == 2 ? item[1] : null);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return properties;
+	}
+
+	/**
+	 * Looks up an item that every header must have.
+	 */
+	private static String require(Map<String,String> header, String name, String prefix) throws IOException
+	{
+		String value = header.get(name);
+		if(value == null)
+			throw new IOException(prefix+".hdr has no "+name+".");
+		return value;
+	}
+
+	/**
+	 * @return true if the point lies within the tile, including on its edges.
+	 */
+	public boolean contains(double lat, double lon)
+	{
+		return lat >= minLat && lat <= maxLat && lon >= minLong && lon <= maxLong;
+	}
+
+	/**
+	 * @return true if the box overlaps the tile, including along its edges.
+	 */
+	public boolean intersects(double minLat, double minLong, double maxLat, double maxLong)
+	{
+		return minLat <= this.maxLat && maxLat >= this.minLat && minLong <= this.maxLong && maxLong >= this.minLong;
+	}
+
+	@Override
+	public String toString()
+	{
+		return prefix+" ("+numColumns+" X "+numRows+", "+minLat+"\u00b0 to "+maxLat+"\u00b0 latitude, "
+				+minLong+"\u00b0 to "+maxLong+"\u00b0 longitude)";
+	}
+}
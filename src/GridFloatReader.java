@@ -1,17 +1,31 @@
-import java.io.BufferedReader;
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
+import java.util.Enumeration;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.StringTokenizer;
+import java.util.concurrent.CancellationException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * GridFloatReader is a simple class that reads in the GridFloat format
  * used by the National Map viewer hosted at viewer.nationalmap.gov.
+ * Each of the .prj, .hdr, and .flt files may also be gzipped (prefix.flt.gz),
+ * or all of them may be left in a zip archive (prefix.zip), as the USGS
+ * delivers them.
  *  
  * @author Anton Ridgway
  */
@@ -24,16 +38,44 @@ public class GridFloatReader
 	private String projection, datum, zUnits, units, spheroid, xShift, yShift, parameters;
 	
 	//Header file data
-	public int numColumns, numRows, noData, numEmptyCells, numCells;
+	public int fileColumns, fileRows, noData;
 	public boolean bigEndian;
+	public double cellSize;
+	double fileXLowerLeftCorner, fileYLowerLeftCorner;
+	
+	//Loaded window data (the whole file, unless a window was requested)
+	public int firstRow, firstColumn, numColumns, numRows;
+	public TileMosaic mosaic; //The mosaic the window was read from, if it was not read from a file.
+	public long numEmptyCells, numCells;
 	public double xLowerLeftCorner, yLowerLeftCorner, yUpperLeftCorner, xUpperLeftCorner, 
-		cellSize, maxHeight, minHeight, avgHeight, minLat, minLong, maxLat, maxLong,
+		maxHeight, minHeight, avgHeight, minLat, minLong, maxLat, maxLong,
 		cellSizeX, cellSizeY, cellSizeRatio;
 	
 	//Data file data
-	public float[][] height;
+	public HeightGrid height;
+	public ElevationHistogram histogram;
+	//Replaced when the heights are quantized or the overview filter changes; read it with getOverviews.
+	private OverviewPyramid overviews;
+	private volatile Downsampler.Filter overviewFilter = Downsampler.Filter.BOX;
+	public ValidityMask validCells;
+	private ValidityMask[] levelMasks;
+	private SpanIndex[] levelSpans;
 	public int maxHeightXIdx, maxHeightYIdx, minHeightXidx, minHeightYIdx;
 	private final double WORLD_RADIUS = 6371000.;
+	private static final long MAX_MAP_BYTES = Integer.MAX_VALUE;
+	private static final int STREAM_BLOCK_ROWS = 64;
+	private static final int PROGRESS_BLOCK_ROWS = 1024;
+	private static final int GZIP_BUFFER_BYTES = 1<<16;
+	private String prefix;
+	private LoadProgress progress;
+	private int reduction = 1; //The cells of the file combined into each loaded cell, by readReduced.
+	
+	/**
+	 * Creates an empty reader, to be filled in by openHeader.
+	 */
+	private GridFloatReader()
+	{
+	}
 	
 	/**
 	 * The GridFloatReader constructor reads in the files associated with the input
@@ -42,11 +84,633 @@ public class GridFloatReader
 	 * @param prefix - The filename (minus extension) for the GridFloat data to be read in.
 	 */
 	public GridFloatReader(String prefix)
+	{
+		this(prefix, false);
+	}
+	
+	/**
+	 * This GridFloatReader constructor can also use a sidecar file (prefix.gfc) to skip parsing
+	 * the header and scanning the data for statistics. If there is no valid sidecar, the dataset
+	 * is read in full and a new sidecar is written for next time.
+	 * 
+	 * @param prefix - The filename (minus extension) for the GridFloat data to be read in.
+	 * @param useSidecar - Whether to read and write the sidecar file.
+	 */
+	public GridFloatReader(String prefix, boolean useSidecar)
+	{
+		this(prefix, useSidecar, null);
+	}
+	
+	/**
+	 * This GridFloatReader constructor also reports its progress as it loads, and can be cancelled.
+	 * 
+	 * @param prefix - The filename (minus extension) for the GridFloat data to be read in.
+	 * @param useSidecar - Whether to read and write the sidecar file.
+	 * @param progress - The receiver for progress reports, or null.
+	 * @throws CancellationException If the load is cancelled by progress, or the thread is interrupted.
+	 */
+	public GridFloatReader(String prefix, boolean useSidecar, LoadProgress progress)
+	{
+		this.prefix = prefix;
+		this.progress = progress;
+		HeightGrid[] cachedLevels = useSidecar ? GridFloatCache.read(this, prefix) : null;
+		if(cachedLevels != null)
+		{
+			if(CONSOLE_DEBUG)
+				System.out.println(prefix+GridFloatCache.EXTENSION+" read successfully.\n");
+			setWindow(0, 0, fileRows, fileColumns);
+			readDataFile(prefix, false);
+			if(height == null)
+				return;
+			cachedLevels[0] = height;
+			overviews = new OverviewPyramid(cachedLevels);
+			reportProgress("Indexing heights", 0);
+			validCells = ValidityMask.build(height, noData);
+		}
+		else
+		{
+			readProjectFile(prefix);
+			readHeaderFile(prefix);
+			setWindow(0, 0, fileRows, fileColumns);
+			readDataFile(prefix, true);
+			if(useSidecar && height != null)
+			{
+				reportProgress("Writing "+GridFloatCache.EXTENSION, 0);
+				GridFloatCache.write(this, prefix);
+			}
+		}
+	}
+	
+	/**
+	 * This GridFloatReader constructor reads in only a window of rows and columns from the
+	 * data file. The extents and statistics describe the window rather than the whole file,
+	 * so the result can be used anywhere a fully-loaded dataset is.
+	 * 
+	 * @param prefix - The filename (minus extension) for the GridFloat data to be read in.
+	 * @param firstRow - The first (northernmost) row of the window.
+	 * @param firstColumn - The first (westernmost) column of the window.
+	 * @param windowRows - The number of rows in the window.
+	 * @param windowColumns - The number of columns in the window.
+	 */
+	public GridFloatReader(String prefix, int firstRow, int firstColumn, int windowRows, int windowColumns)
+	{
+		this.prefix = prefix;
+		readProjectFile(prefix);
+		readHeaderFile(prefix);
+		setWindow(firstRow, firstColumn, windowRows, windowColumns);
+		readDataFile(prefix, true);
+	}
+	
+	/**
+	 * Reads a window of rows and columns from a GridFloat dataset.
+	 * @see #GridFloatReader(String, int, int, int, int)
+	 */
+	public static GridFloatReader readWindow(String prefix, int firstRow, int firstColumn, int windowRows, int windowColumns)
+	{
+		return new GridFloatReader(prefix, firstRow, firstColumn, windowRows, windowColumns);
+	}
+	
+	/**
+	 * Reads only the project and header files for a dataset, leaving height null. The data
+	 * can then be pushed through streamRows without holding the whole grid in memory.
+	 * @param prefix - The filename (minus extension) for the GridFloat data to be read in.
+	 * @return A reader describing the whole file, with no data loaded.
+	 */
+	public static GridFloatReader openHeader(String prefix)
+	{
+		GridFloatReader reader = new GridFloatReader();
+		reader.prefix = prefix;
+		reader.readProjectFile(prefix);
+		reader.readHeaderFile(prefix);
+		reader.setWindow(0, 0, reader.fileRows, reader.fileColumns);
+		return reader;
+	}
+	
+	/**
+	 * Reads a window of a tile's heights, without reading its header files again or computing
+	 * any statistics. Used to load the tiles of a TileMosaic.
+	 * @param tile - The extent of the tile, as probed from its header.
+	 * @param firstRow - The first (northernmost) row of the window.
+	 * @param firstColumn - The first (westernmost) column of the window.
+	 * @param windowRows - The number of rows in the window.
+	 * @param windowColumns - The number of columns in the window.
+	 * @return The heights in the window, or null if the data file cannot be read.
+	 */
+	static HeightGrid readHeights(GridFloatExtent tile, int firstRow, int firstColumn, int windowRows, int windowColumns)
+	{
+		GridFloatReader reader = new GridFloatReader();
+		reader.prefix = tile.prefix;
+		reader.fileColumns = tile.numColumns;
+		reader.fileRows = tile.numRows;
+		reader.noData = tile.noData;
+		reader.bigEndian = tile.bigEndian;
+		reader.cellSize = tile.cellSize;
+		reader.fileXLowerLeftCorner = tile.minLong;
+		reader.fileYLowerLeftCorner = tile.minLat;
+		reader.setWindow(firstRow, firstColumn, windowRows, windowColumns);
+		reader.readDataFile(tile.prefix, false);
+		return reader.height;
+	}
+	
+	/**
+	 * Wraps a window of a TileMosaic as a dataset, as if the mosaic were one large file.
+	 * The statistics, histogram, and overview pyramid are computed for the window.
+	 * @param mosaic - The mosaic the window was read from.
+	 * @param firstRow - The first (northernmost) row of the window in the mosaic.
+	 * @param firstColumn - The first (westernmost) column of the window in the mosaic.
+	 * @param height - The heights in the window.
+	 * @return A reader holding the window.
+	 */
+	static GridFloatReader fromMosaic(TileMosaic mosaic, int firstRow, int firstColumn, HeightGrid height)
+	{
+		GridFloatReader reader = new GridFloatReader();
+		reader.prefix = mosaic.name;
+		reader.fileColumns = mosaic.numColumns;
+		reader.fileRows = mosaic.numRows;
+		reader.noData = mosaic.noData;
+		reader.cellSize = mosaic.cellSize;
+		reader.fileXLowerLeftCorner = mosaic.minLong;
+		reader.fileYLowerLeftCorner = mosaic.minLat;
+		reader.setWindow(firstRow, firstColumn, height.numRows, height.numColumns);
+		reader.mosaic = mosaic;
+		reader.height = height;
+		reader.setStatistics(GridStatistics.compute(height, reader.noData));
+		reader.finishStatistics();
+		return reader;
+	}
+	
+	/**
+	 * Reads a dataset at a reduced resolution by streaming it through a StreamingDownsampler,
+	 * so that only the reduced grid is ever held in memory. Each cell of the result averages a
+	 * factor X factor block of the file, and the statistics are those of the full-resolution data.
+	 * @param prefix - The filename (minus extension) for the GridFloat data to be read in.
+	 * @param factor - The number of cells along each axis to combine into one.
+	 * @return A reader holding the reduced grid, or with height null if the data file cannot be read.
+	 */
+	public static GridFloatReader readReduced(String prefix, int factor)
+	{
+		return readReduced(prefix, factor, null);
+	}
+	
+	/**
+	 * Reads a dataset at a reduced resolution, reporting progress as it goes.
+	 * @see #readReduced(String, int)
+	 * @param progress - The receiver for progress reports, or null.
+	 * @throws CancellationException If the load is cancelled by progress, or the thread is interrupted.
+	 */
+	public static GridFloatReader readReduced(String prefix, int factor, LoadProgress progress)
+	{
+		GridFloatReader reader = openHeader(prefix);
+		reader.progress = progress;
+		GridStatistics stats = new GridStatistics(reader.noData);
+		StreamingDownsampler downsampler = new StreamingDownsampler(factor);
+		reader.reduction = factor;
+		stats.start(reader);
+		downsampler.start(reader);
+		try
+		{
+			reader.readRowBlocks(stats, downsampler);
+		}
+		catch(IOException e)
+		{
+			//Like a failed full-resolution load, leave height null.
+			System.err.println(prefix+".flt could not be read in the root of the project directory.");
+			e.printStackTrace();
+			return reader;
+		}
+		stats.finish();
+		downsampler.finish();
+		
+		//Like an overview level, the reduced grid keeps the northwest corner, and its last row and
+		//column of cells, which may cover fewer file cells, reach past the file's southern and eastern edges.
+		int fullColumns = reader.numColumns;
+		reader.height = downsampler.getResult();
+		reader.numColumns = reader.height.numColumns;
+		reader.numRows = reader.height.numRows;
+		reader.cellSize *= factor;
+		reader.yLowerLeftCorner = reader.yUpperLeftCorner - reader.cellSize*reader.numRows;
+		reader.setExtents();
+		reader.setStatistics(stats);
+		reader.maxHeightYIdx = (int)(stats.maxIndex/fullColumns)/factor;
+		reader.maxHeightXIdx = (int)(stats.maxIndex%fullColumns)/factor;
+		reader.minHeightYIdx = (int)(stats.minIndex/fullColumns)/factor;
+		reader.minHeightXidx = (int)(stats.minIndex%fullColumns)/factor;
+		reader.finishStatistics();
+		return reader;
+	}
+	
+	/**
+	 * Loads a dataset at full resolution if it fits comfortably in the heap, and otherwise at the
+	 * smallest reduced resolution that does.
+	 * @param prefix - The filename (minus extension) for the GridFloat data to be read in.
+	 * @return A reader holding the loaded grid. Its height is null if the data file could not be read.
+	 */
+	public static GridFloatReader load(String prefix)
+	{
+		return load(prefix, null);
+	}
+	
+	/**
+	 * Loads a dataset as load(String) does, reporting progress as it goes.
+	 * @see #load(String)
+	 * @param progress - The receiver for progress reports, or null.
+	 * @throws CancellationException If the load is cancelled by progress, or the thread is interrupted.
+	 */
+	public static GridFloatReader load(String prefix, LoadProgress progress)
+	{
+		return load(prefix, progress, true, Runtime.getRuntime().maxMemory()/2);
+	}
+	
+	/**
+	 * Loads a dataset at full resolution if its heights fit in a given number of bytes, and
+	 * otherwise at the smallest reduced resolution that does.
+	 * @see #load(String)
+	 * @param progress - The receiver for progress reports, or null.
+	 * @param useSidecar - Whether to read and write the sidecar file of a full-resolution load.
+	 * @param availableBytes - The most memory the heights may take.
+	 * @throws CancellationException If the load is cancelled by progress, or the thread is interrupted.
+	 */
+	public static GridFloatReader load(String prefix, LoadProgress progress, boolean useSidecar, long availableBytes)
+	{
+		GridFloatReader header = openHeader(prefix);
+		int factor = 1;
+		while(4L*((header.fileRows+factor-1)/factor)*((header.fileColumns+factor-1)/factor) > availableBytes)
+			factor++;
+		if(factor == 1)
+			return new GridFloatReader(prefix, useSidecar, progress);
+		System.out.println(prefix+".flt is too large for the heap; loading at 1/"+factor+" resolution.");
+		return readReduced(prefix, factor, progress);
+	}
+	
+	/**
+	 * Switches the loaded heights, and every level of the overview pyramid, to 16-bit quantized
+	 * storage, halving their memory. Each grid is scaled between its own lowest and highest
+	 * elevations and keeps its empty cells, and the contour spans are rebuilt over the quantized
+	 * heights as they are next asked for. The statistics are left as they were computed from the full-precision data.
+	 * @return The largest error introduced in the full-resolution heights, in meters.
+	 */
+	public synchronized double quantizeHeights()
+	{
+		if(height == null) return 0;
+		if(!height.isQuantized())
+		{
+			long startTime = System.nanoTime();
+			overviews = overviews.quantize(noData);
+			height = overviews.getLevel(0);
+			levelSpans = null;
+			if(CONSOLE_DEBUG)
+				System.out.println(prefix+" quantized to 16 bits in "+(System.nanoTime()-startTime)/1000000
+						+" ms; the largest error is "+height.getMaxError()+" m.\n");
+		}
+		return height.getMaxError();
+	}
+	
+	/**
+	 * Gets the validity mask of a level of the overview pyramid, building it the first time it
+	 * is asked for. Level 0 is validCells. Synchronized with the other lazily built structures
+	 * and with changes to the pyramid, so a background thread may build them while the viewers'
+	 * GL thread draws.
+	 * @param level - The level of the pyramid, where 0 is the full-resolution grid.
+	 * @return The mask of the level's non-empty cells.
+	 */
+	public synchronized ValidityMask getValidCells(int level)
+	{
+		if(level == 0)
+			return validCells;
+		if(levelMasks == null)
+			levelMasks = new ValidityMask[overviews.getNumLevels()];
+		if(levelMasks[level] == null)
+			levelMasks[level] = ValidityMask.build(overviews.getLevel(level), noData);
+		return levelMasks[level];
+	}
+	
+	/**
+	 * ContourSource holds what contours of one level of the overview pyramid are extracted
+	 * from: the level's grid, with the span index and validity mask built from that same grid.
+	 */
+	public static class ContourSource
+	{
+		public final int level;
+		public final HeightGrid grid;
+		public final SpanIndex spans;
+		public final ValidityMask mask;
+
+		ContourSource(int level, HeightGrid grid, SpanIndex spans, ValidityMask mask)
+		{
+			this.level = level;
+			this.grid = grid;
+			this.spans = spans;
+			this.mask = mask;
+		}
+	}
+	
+	/**
+	 * Gets a level of the overview pyramid together with its span index and validity mask,
+	 * building them the first time they are asked for, so that the index is built once for each
+	 * resolution however often the contours change. All three are taken under one lock, so a
+	 * background thread always gets an index and mask that match the grid, even if the pyramid
+	 * is replaced while it works. Synchronized, like getValidCells.
+	 * @param level - The level of the pyramid, where 0 is the full-resolution grid.
+	 * @return The level's grid, span index, and mask.
+	 */
+	public synchronized ContourSource getContourSource(int level)
+	{
+		if(levelSpans == null)
+			levelSpans = new SpanIndex[overviews.getNumLevels()];
+		if(levelSpans[level] == null)
+			levelSpans[level] = SpanIndex.build(overviews.getLevel(level), noData);
+		return new ContourSource(level, overviews.getLevel(level), levelSpans[level], getValidCells(level));
+	}
+	
+	/**
+	 * @return The overview pyramid of the loaded heights. Synchronized, like getValidCells,
+	 *         since quantizeHeights and setOverviewFilter replace it.
+	 */
+	public synchronized OverviewPyramid getOverviews()
+	{
+		return overviews;
+	}
+	
+	/**
+	 * Rebuilds the reduced levels of the overview pyramid with another filter, such as the
+	 * maximum, which keeps peaks and ridges standing at low resolutions. This can take a while
+	 * for a large dataset, so call it on a background thread: the levels are built without
+	 * holding the reader's lock, and swapped in once they are done. The full-resolution heights
+	 * are kept, and the reduced levels' contour spans are rebuilt as they are next asked for.
+	 * The levels of quantized heights are built from the heights read again at full precision,
+	 * then quantized, so that their errors do not add to those of the quantized heights.
+	 * @param filter - How to combine the cells of each level into the next.
+	 */
+	public void setOverviewFilter(Downsampler.Filter filter)
+	{
+		HeightGrid base;
+		synchronized(this)
+		{
+			if(height == null || filter == overviewFilter) return;
+			base = height;
+		}
+		long startTime = System.nanoTime();
+		HeightGrid fullPrecision = base.isQuantized() ? readFullPrecision() : base;
+		if(fullPrecision == null)
+		{
+			System.err.println(prefix+" could not be read again; its overviews are rebuilt from the quantized heights.");
+			fullPrecision = base;
+		}
+		OverviewPyramid rebuilt = OverviewPyramid.build(fullPrecision, noData, filter);
+		HeightGrid[] levels = new HeightGrid[rebuilt.getNumLevels()];
+		for (int level = 1; level < levels.length; level++)
+			levels[level] = base.isQuantized() ? rebuilt.getLevel(level).quantize(noData) : rebuilt.getLevel(level);
+		levels[0] = base;
+		
+		synchronized(this)
+		{
+			//Heights quantized meanwhile need their levels quantized too, so leave them be.
+			if(height != base) return;
+			overviews = new OverviewPyramid(levels);
+			overviewFilter = filter;
+			//A reduced cell is empty only if every cell it covers is, whatever the filter, so the masks still hold.
+			if(levelSpans != null)
+				for (int level = 1; level < levelSpans.length; level++)
+					levelSpans[level] = null;
+		}
+		if(CONSOLE_DEBUG)
+			System.out.println(prefix+" overviews rebuilt by "+filter.toString().toLowerCase()+" in "
+					+(System.nanoTime()-startTime)/1000000+" ms.\n");
+	}
+	
+	/**
+	 * Reads the loaded heights again from their source, at full precision, for rebuilding the
+	 * overviews of quantized heights.
+	 * @return The heights, or null if they cannot be read.
+	 */
+	private HeightGrid readFullPrecision()
+	{
+		if(mosaic != null)
+			return mosaic.readHeights(firstRow, firstColumn, numRows, numColumns);
+		if(reduction > 1)
+			return readReduced(prefix, reduction).height;
+		GridFloatReader reader = new GridFloatReader();
+		reader.prefix = prefix;
+		reader.fileColumns = fileColumns;
+		reader.fileRows = fileRows;
+		reader.noData = noData;
+		reader.bigEndian = bigEndian;
+		reader.cellSize = cellSize;
+		reader.fileXLowerLeftCorner = fileXLowerLeftCorner;
+		reader.fileYLowerLeftCorner = fileYLowerLeftCorner;
+		reader.setWindow(firstRow, firstColumn, numRows, numColumns);
+		reader.readDataFile(prefix, false);
+		return reader.height;
+	}
+	
+	/**
+	 * @return The number of cells of the file along each axis combined into each loaded cell:
+	 *         1, unless the dataset was read by readReduced.
+	 */
+	public int getReduction()
+	{
+		return reduction;
+	}
+	
+	/**
+	 * @return The filter the reduced levels of the overview pyramid were built with.
+	 */
+	public Downsampler.Filter getOverviewFilter()
+	{
+		return overviewFilter;
+	}
+	
+	/**
+	 * Derives the prefix for a dataset from the path of one of its files, such as prefix.hdr,
+	 * prefix.flt.gz, or prefix.zip.
+	 * @param path - The path of a file in the dataset.
+	 * @return The path minus its extension, and minus any .gz extension before that.
+	 */
+	public static String getPrefix(String path)
+	{
+		if(path.toLowerCase().endsWith(".gz"))
+			path = path.substring(0, path.length()-3);
+		int dotPosition = path.lastIndexOf('.');
+		int separatorPosition = path.lastIndexOf(File.separatorChar);
+		return dotPosition > separatorPosition ? path.substring(0, dotPosition) : path;
+	}
+	
+	/**
+	 * Finds the file that holds one part of a dataset: the plain file, the gzipped file, or
+	 * the zip archive holding the whole dataset, in that order of preference.
+	 * @param prefix - The filename (minus extension) for the GridFloat data.
+	 * @param extension - The extension of the part to find, such as ".flt".
+	 * @return The file holding the part. If there is none, the plain file, which does not exist.
+	 */
+	static File findInput(String prefix, String extension)
+	{
+		File plain = new File(prefix+extension);
+		if(plain.exists()) return plain;
+		File gzipped = new File(prefix+extension+".gz");
+		if(gzipped.exists()) return gzipped;
+		File archive = new File(prefix+".zip");
+		if(archive.exists()) return archive;
+		return plain;
+	}
+	
+	/**
+	 * Opens one part of a dataset for reading, decompressing it if it is gzipped or zipped.
+	 * Within a zip archive, the first entry with the part's extension is used.
+	 * @param prefix - The filename (minus extension) for the GridFloat data.
+	 * @param extension - The extension of the part to open, such as ".flt".
+	 * @return A stream of the part's uncompressed bytes.
+	 * @throws IOException If the part cannot be found or opened.
+	 */
+	static InputStream openInput(String prefix, String extension) throws IOException
+	{
+		File input = findInput(prefix, extension);
+		String name = input.getName().toLowerCase();
+		if(name.endsWith(".gz"))
+			return new GZIPInputStream(new FileInputStream(input), GZIP_BUFFER_BYTES);
+		if(!name.endsWith(".zip"))
+			return new FileInputStream(input);
+		
+		final ZipFile archive = new ZipFile(input);
+		Enumeration<? extends ZipEntry> entries = archive.entries();
+		while(entries.hasMoreElements())
+		{
+			ZipEntry entry = entries.nextElement();
+			if(!entry.isDirectory() && entry.getName().toLowerCase().endsWith(extension))
+			{
+				return new FilterInputStream(archive.getInputStream(entry)) {
+					@Override
+					public void close() throws IOException {
+						super.close();
+						archive.close();
+					}
+				};
+			}
+		}
+		archive.close();
+		throw new FileNotFoundException(input+" has no "+extension+" file.");
+	}
+	
+	/**
+	 * @param prefix - The filename (minus extension) for the GridFloat data.
+	 * @return true if the data file is gzipped or zipped, and so can only be read in order.
+	 */
+	static boolean isDataCompressed(String prefix)
+	{
+		return !findInput(prefix, ".flt").getName().toLowerCase().endsWith(".flt");
+	}
+	
+	/**
+	 * Streams the loaded window of the data file, in blocks of rows, to each of a series of
+	 * pipeline stages. Only one block is held in memory at a time, and its array is reused for
+	 * the next block, so stages must copy anything they need to keep.
+	 * @param stages - The consumers to pass each block to, in order.
+	 */
+	public void streamRows(RowBlockConsumer... stages)
+	{
+		for (RowBlockConsumer stage : stages)
+			stage.start(this);
+		try
+		{
+			readRowBlocks(stages);
+		}
+		catch(IOException e)
+		{
+			System.err.println(prefix+".flt could not be read in the root of the project directory.");
+			e.printStackTrace();
+		}
+		for (RowBlockConsumer stage : stages)
+			stage.finish();
+	}
+	
+	/**
+	 * Reads the loaded window of the data file in blocks of rows, passing each block to a series
+	 * of pipeline stages, which have already been started.
+	 * @param stages - The consumers to pass each block to, in order.
+	 * @throws IOException If the file cannot be read, or ends before the last row.
+	 * @throws CancellationException If the thread is interrupted.
+	 */
+	private void readRowBlocks(RowBlockConsumer... stages) throws IOException
+	{
+		try
+		{
+			if(isDataCompressed(prefix))
+			{
+				streamCompressedRows(stages);
+				return;
+			}
+			try(FileInputStream dataStream = new FileInputStream(prefix+".flt");
+				FileChannel dataChannel = dataStream.getChannel())
+			{
+				int blockRows = Math.min(STREAM_BLOCK_ROWS, numRows);
+				ByteBuffer rowBuffer = ByteBuffer.allocateDirect(4*numColumns).order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+				float[] block = new float[blockRows*numColumns];
+				for (int row = 0; row < numRows; row += blockRows)
+				{
+					reportProgress("Reading "+prefix+".flt", (double)row/numRows);
+					int rows = Math.min(blockRows, numRows-row);
+					readRows(dataChannel, rowBuffer, block, 0, row, rows);
+					for (RowBlockConsumer stage : stages)
+						stage.accept(block, row, rows);
+				}
+			}
+		}
+		catch(ClosedByInterruptException | InterruptedIOException e)
+		{
+			throw cancelled();
+		}
+	}
+	
+	/**
+	 * Streams the loaded window of a compressed data file to a series of pipeline stages. The
+	 * file is inflated on a background thread, while this thread converts the bytes to floats
+	 * and runs the stages. Rows above the window still have to be inflated, but are skipped.
+	 * @param stages - The consumers to pass each block to, in order.
+	 * @throws IOException If the file cannot be read, or ends before the last row.
+	 */
+	private void streamCompressedRows(RowBlockConsumer... stages) throws IOException
+	{
+		DecompressingFloatStream floats = new DecompressingFloatStream(openInput(prefix, ".flt"),
+				bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		try
+		{
+			floats.skip((long)firstRow*fileColumns);
+			int blockRows = Math.min(STREAM_BLOCK_ROWS, numRows);
+			float[] block = new float[blockRows*numColumns];
+			float[] fileRow = numColumns == fileColumns ? null : new float[fileColumns];
+			for (int row = 0; row < numRows; row += blockRows)
+			{
+				reportProgress("Reading "+prefix+".flt", (double)row/numRows);
+				int rows = Math.min(blockRows, numRows-row);
+				for (int i = 0; i < rows; i++)
+				{
+					if(fileRow == null)
+						floats.read(block, i*numColumns, numColumns);
+					else
+					{
+						floats.read(fileRow, 0, fileColumns);
+						System.arraycopy(fileRow, firstColumn, block, i*numColumns, numColumns);
+					}
+				}
+				for (RowBlockConsumer stage : stages)
+					stage.accept(block, row, rows);
+			}
+		}
+		finally
+		{
+			floats.close();
+		}
+	}
+	
+	/**
+	 * Reads the projection information from prefix.prj.
+	 * @param prefix - The filename (minus extension) for the GridFloat data.
+	 */
+	private void readProjectFile(String prefix)
 	{
 		try
 		{
 			//---Read Project File---
-			Scanner scanner = new Scanner(new File(prefix+".prj"));
+			Scanner scanner = new Scanner(openInput(prefix, ".prj"));
 			Map<String,String> properties = new HashMap<String,String>();
 			while(scanner.hasNextLine()) {
 				String[] line = scanner.nextLine().split(" +");
@@ -84,66 +748,30 @@ public class GridFloatReader
 			System.err.println(prefix+".prj could not be read in the root of the project directory.");
 			e.printStackTrace();
 		}
+	}
+	
+	/**
+	 * Reads the grid dimensions, location, and byte order from prefix.hdr.
+	 * @param prefix - The filename (minus extension) for the GridFloat data.
+	 */
+	private void readHeaderFile(String prefix)
+	{
 		try
 		{
 			//---Read Header File---
-			BufferedReader headerFile = new BufferedReader(new FileReader(prefix+".hdr"));
-			StringTokenizer parser = new StringTokenizer(headerFile.readLine());
-			parser.nextToken(); //Skip the item name first
-			String parseStr = parser.nextToken();
-			numColumns = Integer.parseInt(parseStr);
-			
-			parser = new StringTokenizer(headerFile.readLine());
-			parser.nextToken();
-			parseStr = parser.nextToken();
-			numRows = Integer.parseInt(parseStr);
-			
-			parser = new StringTokenizer(headerFile.readLine());
-			parser.nextToken();
-			parseStr = parser.nextToken();
-			xLowerLeftCorner = Double.parseDouble(parseStr);
-			
-			parser = new StringTokenizer(headerFile.readLine());
-			parser.nextToken();
-			parseStr = parser.nextToken();
-			yLowerLeftCorner = Double.parseDouble(parseStr);
-			
-			parser = new StringTokenizer(headerFile.readLine());
-			parser.nextToken();
-			parseStr = parser.nextToken();
-			cellSize = Double.parseDouble(parseStr);
-			
-			parser = new StringTokenizer(headerFile.readLine());
-			parser.nextToken();
-			parseStr = parser.nextToken();
-			noData = Integer.parseInt(parseStr);
-			
-			parser = new StringTokenizer(headerFile.readLine());
-			parser.nextToken();
-			parseStr = parser.nextToken();
-			if(parseStr.equals("MSBFIRST")) //Java is most-significant bit first.
-				bigEndian = true;
-			else
-				bigEndian = false;
-			
-			yUpperLeftCorner = yLowerLeftCorner + cellSize*numRows;
-			xUpperLeftCorner = xLowerLeftCorner + cellSize*numColumns;
-			minLong = xLowerLeftCorner;
-			minLat = yLowerLeftCorner;
-			maxLong = minLong + cellSize*numColumns;
-			maxLat = minLat + cellSize*numRows;
-			cellSizeX = haversine(minLat,minLong,minLat,maxLong)/numColumns;
-			cellSizeY = haversine(minLat,minLong,maxLat,maxLong)/numRows;
-			cellSizeRatio = cellSizeY/cellSizeX;
-			headerFile.close();
+			GridFloatExtent extent = GridFloatExtent.probe(prefix);
+			fileColumns = extent.numColumns;
+			fileRows = extent.numRows;
+			fileXLowerLeftCorner = extent.minLong;
+			fileYLowerLeftCorner = extent.minLat;
+			cellSize = extent.cellSize;
+			noData = extent.noData;
+			bigEndian = extent.bigEndian;
 			
 			if(CONSOLE_DEBUG)
 			{
 				System.out.println(prefix+".hdr read successfully."
-						+ "\n"+numColumns+" columns X "+numRows+" rows."
-						+ "\nCell size: "+cellSizeX+" X "+cellSizeY+"."
-						+ "\n"+minLat+"\u00b0 to "+maxLat+"\u00b0 latitude."
-						+ "\n"+minLong+"\u00b0 to "+maxLong+"\u00b0 longitude."
+						+ "\n"+fileColumns+" columns X "+fileRows+" rows."
 						+ "\n");
 			}
 		}
@@ -152,40 +780,78 @@ public class GridFloatReader
 			System.err.println(prefix+".hdr could not be read in the root of the project directory.");
 			e.printStackTrace();
 		}
+	}
+	
+	/**
+	 * Selects the window of the file to be loaded, and computes the extents of that window.
+	 * Row 0 is the northernmost row of the file, so the window's lower-left corner is offset
+	 * by the rows below it.
+	 * @param firstRow - The first row of the window.
+	 * @param firstColumn - The first column of the window.
+	 * @param windowRows - The number of rows in the window.
+	 * @param windowColumns - The number of columns in the window.
+	 */
+	private void setWindow(int firstRow, int firstColumn, int windowRows, int windowColumns)
+	{
+		if(firstRow < 0 || firstColumn < 0 || windowRows < 1 || windowColumns < 1
+				|| firstRow+windowRows > fileRows || firstColumn+windowColumns > fileColumns)
+			throw new IllegalArgumentException("Window of "+windowColumns+" X "+windowRows+" at ("+firstColumn+", "+firstRow
+					+") lies outside the "+fileColumns+" X "+fileRows+" grid.");
+		
+		this.firstRow = firstRow;
+		this.firstColumn = firstColumn;
+		numRows = windowRows;
+		numColumns = windowColumns;
+		xLowerLeftCorner = fileXLowerLeftCorner + cellSize*firstColumn;
+		yLowerLeftCorner = fileYLowerLeftCorner + cellSize*(fileRows-firstRow-windowRows);
+		setExtents();
+		
+		if(CONSOLE_DEBUG)
+		{
+			System.out.println("Window of "+numColumns+" columns X "+numRows+" rows at ("+firstColumn+", "+firstRow+")."
+					+ "\nCell size: "+cellSizeX+" X "+cellSizeY+"."
+					+ "\n"+minLat+"\u00b0 to "+maxLat+"\u00b0 latitude."
+					+ "\n"+minLong+"\u00b0 to "+maxLong+"\u00b0 longitude."
+					+ "\n");
+		}
+	}
+	
+	/**
+	 * Computes the extents and cell sizes of the loaded grid from its lower-left corner, its
+	 * cell size, and its numbers of rows and columns.
+	 */
+	private void setExtents()
+	{
+		yUpperLeftCorner = yLowerLeftCorner + cellSize*numRows;
+		xUpperLeftCorner = xLowerLeftCorner + cellSize*numColumns;
+		minLong = xLowerLeftCorner;
+		minLat = yLowerLeftCorner;
+		maxLong = minLong + cellSize*numColumns;
+		maxLat = minLat + cellSize*numRows;
+		cellSizeX = haversine(minLat,minLong,minLat,maxLong)/numColumns;
+		cellSizeY = haversine(minLat,minLong,maxLat,maxLong)/numRows;
+		cellSizeRatio = cellSizeY/cellSizeX;
+	}
+	
+	/**
+	 * Reads the selected window of prefix.flt. When the window spans every column, its rows are
+	 * contiguous in the file and are memory-mapped; otherwise, each row of the window is fetched
+	 * with a positional read. A compressed file is streamed instead, and its statistics are
+	 * gathered as it is read.
+	 * @param prefix - The filename (minus extension) for the GridFloat data.
+	 * @param computeStatistics - Whether to compute the statistics, histogram, and overview pyramid,
+	 *                            rather than keeping those already restored from a sidecar.
+	 */
+	private void readDataFile(String prefix, boolean computeStatistics)
+	{
 		try
 		{
 			//---Read Data File---
-			DataInputStream dataFile = new DataInputStream(new FileInputStream(prefix+".flt"));
-			maxHeight = Double.NEGATIVE_INFINITY;
-			minHeight = Double.POSITIVE_INFINITY;
-			height = new float[numRows][numColumns];
-			for (int i = 0; i < numRows; i++)
-				for (int j = 0; j < numColumns; j++)
-				{
-					height[i][j] = Float.intBitsToFloat(bigEndian ? dataFile.readInt() : Integer.reverseBytes(dataFile.readInt()));
-					
-					if (height[i][j] == noData)
-						numEmptyCells++;
-					else
-					{
-						avgHeight += height[i][j];
-						numCells++;
-					}
-					if (height[i][j] > maxHeight)
-					{
-						maxHeight = height[i][j];
-						maxHeightYIdx = i;
-						maxHeightXIdx = j;
-					}
-					if (height[i][j] < minHeight)
-					{
-						minHeight = height[i][j];
-						minHeightYIdx = i;
-						minHeightXidx = j;
-					}
-				}
-			avgHeight /= numCells;
-			dataFile.close();
+			long startTime = System.nanoTime();
+			if(isDataCompressed(prefix))
+				readCompressedDataFile(computeStatistics);
+			else
+				readUncompressedDataFile(computeStatistics);
 			
 			if(CONSOLE_DEBUG)
 			{
@@ -193,16 +859,190 @@ public class GridFloatReader
 						+ "\nMin height: "+minHeight
 						+ "\nMax height: "+maxHeight
 						+ "\nAvg height: "+avgHeight
+						+ "\nLoaded in "+(System.nanoTime()-startTime)/1000000+" ms."
 						+ "\n");
 			}
 		}
+		catch(ClosedByInterruptException | InterruptedIOException e)
+		{
+			throw cancelled();
+		}
 		catch(IOException e)
 		{
 			System.err.println(prefix+".flt could not be read in the root of the project directory.");
 			e.printStackTrace();
+			//Leave nothing half-read behind, so that callers can tell the load failed.
+			height = null;
+		}
+	}
+	
+	/**
+	 * Reads the selected window of an uncompressed prefix.flt into the height grid, then
+	 * computes the statistics in parallel.
+	 * @param computeStatistics - Whether to compute the statistics, histogram, and overview pyramid.
+	 * @throws IOException If the file cannot be read, or ends before the last row.
+	 */
+	private void readUncompressedDataFile(boolean computeStatistics) throws IOException
+	{
+		ByteOrder byteOrder = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+		long fileRowBytes = 4L*fileColumns;
+		try(FileInputStream dataStream = new FileInputStream(prefix+".flt");
+			FileChannel dataChannel = dataStream.getChannel())
+		{
+			height = new HeightGrid(numColumns, numRows);
+			float[] data = height.getData();
+			if(numColumns == fileColumns)
+			{
+				//Mappings are limited to 2GB, so very large files are mapped in bands of rows.
+				int rowsPerMap = (int)Math.max(1, MAX_MAP_BYTES/fileRowBytes);
+				for (int row = 0; row < numRows; row += rowsPerMap)
+				{
+					int bandRows = Math.min(rowsPerMap, numRows-row);
+					FloatBuffer band = dataChannel.map(FileChannel.MapMode.READ_ONLY, (firstRow+row)*fileRowBytes, bandRows*fileRowBytes)
+												  .order(byteOrder).asFloatBuffer();
+					//Copy in smaller blocks, so that progress can be reported.
+					for (int blockRow = 0; blockRow < bandRows; blockRow += PROGRESS_BLOCK_ROWS)
+					{
+						reportProgress("Reading "+prefix+".flt", (double)(row+blockRow)/numRows);
+						band.get(data, (row+blockRow)*numColumns, Math.min(PROGRESS_BLOCK_ROWS, bandRows-blockRow)*numColumns);
+					}
+				}
+			}
+			else
+			{
+				ByteBuffer rowBuffer = ByteBuffer.allocateDirect(4*numColumns).order(byteOrder);
+				for (int row = 0; row < numRows; row += STREAM_BLOCK_ROWS)
+				{
+					reportProgress("Reading "+prefix+".flt", (double)row/numRows);
+					readRows(dataChannel, rowBuffer, data, row*numColumns, row, Math.min(STREAM_BLOCK_ROWS, numRows-row));
+				}
+			}
+		}
+		
+		if(computeStatistics)
+		{
+			reportProgress("Computing statistics", 0);
+			setStatistics(GridStatistics.compute(height, noData));
+			finishStatistics();
+		}
+		reportProgress("Done", 1);
+	}
+	
+	/**
+	 * Reads the selected window of a compressed prefix.flt into the height grid, gathering the
+	 * statistics on the same pass.
+	 * @param computeStatistics - Whether to compute the statistics, histogram, and overview pyramid.
+	 * @throws IOException If the file cannot be read, or ends before the last row.
+	 */
+	private void readCompressedDataFile(boolean computeStatistics) throws IOException
+	{
+		height = new HeightGrid(numColumns, numRows);
+		final float[] data = height.getData();
+		RowBlockConsumer copier = new RowBlockConsumer() {
+			@Override
+			public void start(GridFloatReader header) {
+			}
+			@Override
+			public void accept(float[] block, int firstRow, int numRows) {
+				System.arraycopy(block, 0, data, firstRow*numColumns, numRows*numColumns);
+			}
+			@Override
+			public void finish() {
+			}
+		};
+		GridStatistics stats = new GridStatistics(noData);
+		RowBlockConsumer[] stages = computeStatistics ? new RowBlockConsumer[]{copier, stats} : new RowBlockConsumer[]{copier};
+		for (RowBlockConsumer stage : stages)
+			stage.start(this);
+		readRowBlocks(stages);
+		for (RowBlockConsumer stage : stages)
+			stage.finish();
+		if(computeStatistics)
+		{
+			setStatistics(stats);
+			finishStatistics();
+		}
+		reportProgress("Done", 1);
+	}
+	
+	/**
+	 * Builds the histogram, the overview pyramid, and the validity mask, once the statistics have been set.
+	 */
+	private void finishStatistics()
+	{
+		reportProgress("Computing statistics", 0.5);
+		histogram = ElevationHistogram.compute(height, noData, minHeight, maxHeight);
+		reportProgress("Building overviews", 0);
+		overviews = OverviewPyramid.build(height, noData);
+		reportProgress("Indexing heights", 0);
+		validCells = ValidityMask.build(height, noData);
+	}
+	
+	/**
+	 * Reads rows of the loaded window with positional reads, one row at a time.
+	 * @param dataChannel - The channel for the data file.
+	 * @param rowBuffer - A buffer, in the file's byte order, with room for one row of the window.
+	 * @param dest - The array to store the rows in.
+	 * @param destOffset - The position in dest for the first cell.
+	 * @param row - The first row to read, relative to the window.
+	 * @param rows - The number of rows to read.
+	 * @throws IOException If the file cannot be read, or ends before the last row.
+	 */
+	private void readRows(FileChannel dataChannel, ByteBuffer rowBuffer, float[] dest, int destOffset, int row, int rows) throws IOException
+	{
+		long fileRowBytes = 4L*fileColumns;
+		for (int i = 0; i < rows; i++)
+		{
+			long position = (firstRow+row+i)*fileRowBytes + 4L*firstColumn;
+			rowBuffer.clear();
+			while(rowBuffer.hasRemaining())
+				if(dataChannel.read(rowBuffer, position+rowBuffer.position()) < 0)
+					throw new EOFException(prefix+".flt ended before row "+(firstRow+row+i)+".");
+			rowBuffer.flip();
+			rowBuffer.asFloatBuffer().get(dest, destOffset+i*numColumns, numColumns);
 		}
 	}
 
+	/**
+	 * Passes a progress report on to the receiver, if there is one, after checking whether the
+	 * load has been cancelled by interrupting the thread.
+	 * @param step - A short description of the current step.
+	 * @param fraction - How much of the step is complete, from 0 to 1.
+	 * @throws CancellationException If the thread has been interrupted, or the receiver cancels.
+	 */
+	private void reportProgress(String step, double fraction)
+	{
+		if(Thread.currentThread().isInterrupted())
+			throw cancelled();
+		if(progress != null)
+			progress.update(step, fraction);
+	}
+	
+	/**
+	 * @return The exception thrown when a load is cancelled.
+	 */
+	private CancellationException cancelled()
+	{
+		return new CancellationException("Loading "+prefix+" was cancelled.");
+	}
+	
+	/**
+	 * Copies the results of a statistics pass into the public fields describing the data.
+	 * @param stats - The statistics for the loaded window.
+	 */
+	private void setStatistics(GridStatistics stats)
+	{
+		maxHeight = stats.maxHeight;
+		minHeight = stats.minHeight;
+		avgHeight = stats.getAverage();
+		numCells = stats.numCells;
+		numEmptyCells = stats.numEmptyCells;
+		maxHeightYIdx = (int)(stats.maxIndex/numColumns);
+		maxHeightXIdx = (int)(stats.maxIndex%numColumns);
+		minHeightYIdx = (int)(stats.minIndex/numColumns);
+		minHeightXidx = (int)(stats.minIndex%numColumns);
+	}
+
 	/**
 	 * An implementation of the well-known Haversine formula to calculate the distance between two points
 	 * in latitude-longitude coordinates. 
@@ -0,0 +1,99 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import com.jogamp.opengl.GL2;
+
+/**
+ * GridIndexCache holds the uploaded index buffers of complete grids, keyed by the grid's columns,
+ * rows, and stride, which are all their connectivity depends on. Datasets of the same size, and
+ * resolution levels seen before, then draw from index buffers already on the GPU. The least
+ * recently used buffers are deleted once their total size passes a limit in bytes. All methods
+ * must be called on the GL thread of the context the buffers belong to.
+ */
+public class GridIndexCache
+{
+	private final long maxBytes;
+	private final LinkedHashMap<String,IndexBuffer> buffers = new LinkedHashMap<String,IndexBuffer>(16, 0.75f, true);
+	private long bytes, hits, misses;
+
+	/**
+	 * @param maxBytes - The total size of the index buffers to keep. The most recently used
+	 *                   buffer is always kept, even if it alone is larger.
+	 */
+	public GridIndexCache(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Gets the index buffer of a complete grid, building and uploading it if it is not cached.
+	 * A buffer may be deleted by a later call, so callers should check IndexBuffer.isDeleted
+	 * before drawing one they have held on to.
+	 * @param gl - The GL context.
+	 * @param columns - The columns of vertices in the grid.
+	 * @param rows - The rows of vertices in the grid.
+	 * @param stride - The columns and rows of vertices between drawn points.
+	 * @return The index buffer.
+	 */
+	public IndexBuffer get(GL2 gl, int columns, int rows, int stride)
+	{
+		String key = columns+"x"+rows+"/"+stride;
+		IndexBuffer buffer = buffers.get(key);
+		if(buffer != null)
+		{
+			hits++;
+			return buffer;
+		}
+		misses++;
+		buffer = IndexBuffer.upload(gl, GridIndices.build(columns, rows, stride, IndexBuffer.isRestartSupported(gl)));
+		buffers.put(key, buffer);
+		bytes += buffer.getBytes();
+
+		//Evict in access order, which leaves the buffer just uploaded for last.
+		Iterator<Map.Entry<String,IndexBuffer>> eldest = buffers.entrySet().iterator();
+		while(bytes > maxBytes && buffers.size() > 1)
+		{
+			IndexBuffer evicted = eldest.next().getValue();
+			bytes -= evicted.getBytes();
+			evicted.delete(gl);
+			eldest.remove();
+		}
+		return buffer;
+	}
+
+	/**
+	 * Deletes every buffer.
+	 * @param gl - The GL context.
+	 */
+	public void dispose(GL2 gl)
+	{
+		for (IndexBuffer buffer : buffers.values())
+			buffer.delete(gl);
+		buffers.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * @return The total size of the cached index buffers, in bytes.
+	 */
+	public long getBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * @return The number of requests answered from the cache.
+	 */
+	public long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * @return The number of requests that had to build and upload a buffer.
+	 */
+	public long getMisses()
+	{
+		return misses;
+	}
+}
@@ -0,0 +1,182 @@
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * GridIndices holds the indices that draw a grid of vertices as a single triangle strip, so that
+ * a whole mesh takes one draw call. The grid is drawn as a strip down each column of cells, and
+ * the column strips are joined either by a primitive restart index or, where that is not
+ * supported, by repeating the last index of one strip and the first of the next, which adds
+ * degenerate triangles that draw nothing. Every column strip has an even length, so each keeps
+ * its winding after a join. Indices are 16-bit if every vertex (and the restart index) fits, and
+ * 32-bit otherwise. No GL calls are made here; see IndexBuffer.
+ *
+ * Vertex (x, y) of a grid is at index y*columns+x, as in TerrainMesh. A stride greater than one
+ * draws only every stride-th column and row of vertices.
+ */
+public class GridIndices
+{
+	//The most vertices that 16-bit indices can address, leaving the largest value for a restart.
+	public static final int MAX_SHORT_VERTICES = 0xFFFF;
+
+	public final Buffer indices;
+	public final int numIndices;
+	public final boolean shortIndices, restart;
+	//The column of cells, first row, and row after the end of each column strip, in drawn points.
+	private final int[] runColumns, runFirstRows, runEndRows;
+	private final int numRuns, columns, stride;
+
+	private GridIndices(int numVertices, int columns, int stride, boolean restart,
+						int[] runColumns, int[] runFirstRows, int[] runEndRows, int numRuns)
+	{
+		this.columns = columns;
+		this.stride = stride;
+		this.restart = restart;
+		this.runColumns = runColumns;
+		this.runFirstRows = runFirstRows;
+		this.runEndRows = runEndRows;
+		this.numRuns = numRuns;
+		shortIndices = numVertices <= (restart ? MAX_SHORT_VERTICES : MAX_SHORT_VERTICES+1);
+
+		int count = 0;
+		for (int run = 0; run < numRuns; run++)
+			count += 2*(runEndRows[run]-runFirstRows[run]);
+		if(numRuns > 1)
+			count += (numRuns-1)*(restart ? 1 : 2);
+		numIndices = count;
+		ByteBuffer bytes = ByteBuffer.allocateDirect((shortIndices ? 2 : 4)*count).order(ByteOrder.nativeOrder());
+		indices = shortIndices ? bytes.asShortBuffer() : bytes.asIntBuffer();
+		fill();
+	}
+
+	/**
+	 * Builds the indices of a complete grid, whose connectivity depends only on its size.
+	 * @param columns - The columns of vertices in the grid.
+	 * @param rows - The rows of vertices in the grid.
+	 * @param stride - The columns and rows of vertices between drawn points.
+	 * @param restart - Whether to join strips with a restart index rather than degenerate triangles.
+	 * @return The indices.
+	 */
+	public static GridIndices build(int columns, int rows, int stride, boolean restart)
+	{
+		int drawnColumns = (columns-1)/stride+1, drawnRows = (rows-1)/stride+1;
+		int numRuns = drawnRows >= 2 ? drawnColumns-1 : 0;
+		int[] runColumns = new int[numRuns], runFirstRows = new int[numRuns], runEndRows = new int[numRuns];
+		for (int run = 0; run < numRuns; run++)
+		{
+			runColumns[run] = run;
+			runEndRows[run] = drawnRows;
+		}
+		return new GridIndices(columns*rows, columns, stride, restart, runColumns, runFirstRows, runEndRows, numRuns);
+	}
+
+	/**
+	 * Builds the indices of a grid with empty cells, whose column strips are broken around them.
+	 * @param mask - The grid's non-empty cells.
+	 * @param restart - Whether to join strips with a restart index rather than degenerate triangles.
+	 * @return The indices.
+	 */
+	public static GridIndices build(ValidityMask mask, boolean restart)
+	{
+		int[] runColumns = new int[16], runFirstRows = new int[16], runEndRows = new int[16];
+		int numRuns = 0;
+		for (int x = 0; x < mask.numColumns-1; x++)
+		{
+			for (int y = 0; y < mask.numRows; )
+			{
+				int end = getRunEnd(mask, x, y);
+				if(end-y >= 2)
+				{
+					if(numRuns == runColumns.length)
+					{
+						runColumns = Arrays.copyOf(runColumns, 2*numRuns);
+						runFirstRows = Arrays.copyOf(runFirstRows, 2*numRuns);
+						runEndRows = Arrays.copyOf(runEndRows, 2*numRuns);
+					}
+					runColumns[numRuns] = x;
+					runFirstRows[numRuns] = y;
+					runEndRows[numRuns++] = end;
+				}
+				y = Math.max(end, y+1);
+			}
+		}
+		return new GridIndices(mask.numColumns*mask.numRows, mask.numColumns, 1, restart,
+							   runColumns, runFirstRows, runEndRows, numRuns);
+	}
+
+	/**
+	 * @return The row after the end of the run of rows, from a first row, in which points x and
+	 *         x+1 are both valid, or the first row if they are not.
+	 */
+	private static int getRunEnd(ValidityMask mask, int x, int y)
+	{
+		if(mask.allValid(x, y, x+2, mask.numRows))
+			return mask.numRows;
+		int end = y;
+		while(end < mask.numRows && mask.allValid(x, end, x+2, end+1))
+			end++;
+		return end;
+	}
+
+	/**
+	 * @return The index of the vertex at a drawn point.
+	 */
+	private int getVertex(int x, int y)
+	{
+		return y*stride*columns + x*stride;
+	}
+
+	/**
+	 * Writes the column strips, and the joins between them, into the index buffer.
+	 */
+	private void fill()
+	{
+		for (int run = 0; run < numRuns; run++)
+		{
+			int x = runColumns[run];
+			if(run > 0)
+			{
+				if(restart)
+					put(getRestartIndex());
+				else
+				{
+					put(getVertex(runColumns[run-1]+1, runEndRows[run-1]-1));
+					put(getVertex(x, runFirstRows[run]));
+				}
+			}
+			for (int y = runFirstRows[run]; y < runEndRows[run]; y++)
+			{
+				put(getVertex(x, y));
+				put(getVertex(x+1, y));
+			}
+		}
+		indices.rewind();
+	}
+
+	private void put(int index)
+	{
+		if(shortIndices)
+			((ShortBuffer)indices).put((short)index);
+		else
+			((IntBuffer)indices).put(index);
+	}
+
+	/**
+	 * @return The index that restarts the strip: the largest value of the index type.
+	 */
+	public int getRestartIndex()
+	{
+		return shortIndices ? 0xFFFF : 0xFFFFFFFF;
+	}
+
+	/**
+	 * @return The size of the indices, in bytes.
+	 */
+	public long getBytes()
+	{
+		return (shortIndices ? 2L : 4L)*numIndices;
+	}
+}
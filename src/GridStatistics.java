@@ -0,0 +1,186 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * GridStatistics accumulates the minimum, maximum, and average elevation of a grid, along with
+ * the number of empty (noData) cells and the positions of the extreme values. Cells are
+ * identified by their row-major index, so partial results for separate runs of cells can be
+ * merged into the statistics for the whole grid. As a RowBlockConsumer, it can also gather
+ * the statistics for a dataset streamed from its file.
+ */
+public class GridStatistics implements RowBlockConsumer
+{
+	//The number of rows below which a band is reduced serially rather than split.
+	private static final int ROWS_PER_BAND = 64;
+
+	public double minHeight = Double.POSITIVE_INFINITY;
+	public double maxHeight = Double.NEGATIVE_INFINITY;
+	public double heightSum;
+	public long numCells, numEmptyCells;
+	public long minIndex = -1, maxIndex = -1;
+	private final float noData;
+	private int streamColumns;
+
+	/**
+	 * Creates an empty set of statistics.
+	 * @param noData - The value marking empty cells, which are counted but otherwise ignored.
+	 */
+	public GridStatistics(float noData)
+	{
+		this.noData = noData;
+	}
+
+	/**
+	 * Computes the statistics for a whole grid, splitting it into bands of rows that are
+	 * reduced in parallel on the common fork-join pool. The bands depend only on the grid's
+	 * size, so the result is the same regardless of the number of threads.
+	 * @param grid - The grid to compute statistics for.
+	 * @param noData - The value marking empty cells.
+	 * @return The statistics for the grid.
+	 */
+	public static GridStatistics compute(HeightGrid grid, float noData)
+	{
+		return ForkJoinPool.commonPool().invoke(new BandTask(grid, noData, 0, grid.numRows));
+	}
+
+	/**
+	 * Adds a run of cells to the statistics.
+	 * @param data - The array holding the cells.
+	 * @param offset - The position of the first cell in data.
+	 * @param length - The number of cells to add.
+	 * @param firstIndex - The row-major index of the first cell in the whole grid.
+	 */
+	public void accumulate(float[] data, int offset, int length, long firstIndex)
+	{
+		float min = (float)minHeight, max = (float)maxHeight;
+		int minPos = -1, maxPos = -1;
+		double sum = 0;
+		int empty = 0;
+		for (int i = offset, end = offset+length; i < end; i++)
+		{
+			float value = data[i];
+			if (value == noData)
+			{
+				empty++;
+				continue;
+			}
+			sum += value;
+			if (value > max)
+			{
+				max = value;
+				maxPos = i;
+			}
+			if (value < min)
+			{
+				min = value;
+				minPos = i;
+			}
+		}
+		heightSum += sum;
+		numEmptyCells += empty;
+		numCells += length-empty;
+		if (maxPos >= 0)
+		{
+			maxHeight = max;
+			maxIndex = firstIndex + (maxPos-offset);
+		}
+		if (minPos >= 0)
+		{
+			minHeight = min;
+			minIndex = firstIndex + (minPos-offset);
+		}
+	}
+
+	/**
+	 * Merges the statistics for another run of cells into these. Ties between extreme values
+	 * are broken in favor of the lower index, matching a single row-major pass.
+	 * @param other - The statistics to merge.
+	 */
+	public void merge(GridStatistics other)
+	{
+		heightSum += other.heightSum;
+		numCells += other.numCells;
+		numEmptyCells += other.numEmptyCells;
+		if (other.maxIndex >= 0 && (other.maxHeight > maxHeight || (other.maxHeight == maxHeight && other.maxIndex < maxIndex)))
+		{
+			maxHeight = other.maxHeight;
+			maxIndex = other.maxIndex;
+		}
+		if (other.minIndex >= 0 && (other.minHeight < minHeight || (other.minHeight == minHeight && other.minIndex < minIndex)))
+		{
+			minHeight = other.minHeight;
+			minIndex = other.minIndex;
+		}
+	}
+
+	@Override
+	public void start(GridFloatReader header)
+	{
+		streamColumns = header.numColumns;
+	}
+
+	@Override
+	public void accept(float[] block, int firstRow, int numRows)
+	{
+		accumulate(block, 0, numRows*streamColumns, (long)firstRow*streamColumns);
+	}
+
+	@Override
+	public void finish()
+	{
+	}
+
+	/**
+	 * @return The average elevation of the non-empty cells.
+	 */
+	public double getAverage()
+	{
+		return heightSum/numCells;
+	}
+
+	/**
+	 * BandTask reduces a band of rows, splitting it in half until it is small enough to
+	 * be reduced directly. The lower half is always merged first.
+	 */
+	private static class BandTask extends RecursiveTask<GridStatistics>
+	{
+		private static final long serialVersionUID = 1L;
+		private final HeightGrid grid;
+		private final float noData;
+		private final int firstRow, endRow;
+
+		BandTask(HeightGrid grid, float noData, int firstRow, int endRow)
+		{
+			this.grid = grid;
+			this.noData = noData;
+			this.firstRow = firstRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		protected GridStatistics compute()
+		{
+			if (endRow-firstRow <= ROWS_PER_BAND)
+			{
+				GridStatistics stats = new GridStatistics(noData);
+				int offset = firstRow*grid.numColumns, length = (endRow-firstRow)*grid.numColumns;
+				if(grid.isQuantized())
+				{
+					//Quantized grids are decoded a band at a time.
+					float[] band = new float[length];
+					grid.getCells(offset, band, 0, length);
+					stats.accumulate(band, 0, length, offset);
+				}
+				else
+					stats.accumulate(grid.getData(), offset, length, offset);
+				return stats;
+			}
+			int midRow = (firstRow+endRow) >>> 1;
+			BandTask upper = new BandTask(grid, noData, midRow, endRow);
+			upper.fork();
+			GridStatistics stats = new BandTask(grid, noData, firstRow, midRow).compute();
+			stats.merge(upper.join());
+			return stats;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * HeightGrid stores a rectangular grid of elevations in a single row-major float array,
+ * rather than one array object per row. Cells are addressed by column (x) and row (y),
+ * with row 0 being the northernmost row, as in the GridFloat file.
+ *
+ * A grid can also be quantized, storing each elevation as a 16-bit code scaled between the
+ * grid's lowest and highest elevations, which halves its memory at the cost of a small error.
+ * Quantized grids are read through get like any other, but have no backing float array.
+ */
+public class HeightGrid
+{
+	//The code marking an empty cell in a quantized grid, and the lowest code of a height.
+	private static final short EMPTY_CODE = Short.MIN_VALUE;
+	private static final int FIRST_CODE = Short.MIN_VALUE+1;
+	private static final int NUM_CODES = Short.MAX_VALUE-FIRST_CODE;
+
+	public final int numColumns, numRows;
+	private final float[] data;
+	private final short[] codes;
+	private final float offset, scale, noData;
+	private final double maxError;
+
+	/**
+	 * Creates an empty grid of the given dimensions.
+	 * @param numColumns - The number of columns (x) in the grid.
+	 * @param numRows - The number of rows (y) in the grid.
+	 */
+	public HeightGrid(int numColumns, int numRows)
+	{
+		if((long)numColumns*numRows > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(numColumns+" X "+numRows+" cells is too large for a single grid.");
+		this.numColumns = numColumns;
+		this.numRows = numRows;
+		data = new float[numColumns*numRows];
+		codes = null;
+		offset = scale = noData = 0;
+		maxError = 0;
+	}
+
+	private HeightGrid(int numColumns, int numRows, short[] codes, float offset, float scale, float noData, double maxError)
+	{
+		this.numColumns = numColumns;
+		this.numRows = numRows;
+		data = null;
+		this.codes = codes;
+		this.offset = offset;
+		this.scale = scale;
+		this.noData = noData;
+		this.maxError = maxError;
+	}
+
+	/**
+	 * Returns the elevation at a cell.
+	 * @param x - The column of the cell.
+	 * @param y - The row of the cell.
+	 * @return The elevation stored at (x, y).
+	 */
+	public final float get(int x, int y)
+	{
+		int i = y*numColumns+x;
+		if(codes == null)
+			return data[i];
+		short code = codes[i];
+		return code == EMPTY_CODE ? noData : decode(code, offset, scale);
+	}
+
+	/**
+	 * Sets the elevation at a cell. A quantized grid clamps the elevation to its range.
+	 * @param x - The column of the cell.
+	 * @param y - The row of the cell.
+	 * @param value - The new elevation.
+	 */
+	public final void set(int x, int y, float value)
+	{
+		if(codes == null)
+			data[y*numColumns+x] = value;
+		else
+			codes[y*numColumns+x] = value == noData ? EMPTY_CODE : encode(value, offset, scale);
+	}
+
+	/**
+	 * Copies a run of cells, in row-major order, into an array. Quantized grids are decoded, with
+	 * empty cells copied as the empty value, so this works for both kinds of storage.
+	 * @param first - The row-major index of the first cell: y*numColumns+x for cell (x, y).
+	 * @param dest - The array to copy the cells to.
+	 * @param destOffset - The position in dest for the first cell.
+	 * @param length - The number of cells to copy.
+	 */
+	public final void getCells(int first, float[] dest, int destOffset, int length)
+	{
+		if(codes == null)
+		{
+			System.arraycopy(data, first, dest, destOffset, length);
+			return;
+		}
+		for (int i = 0; i < length; i++)
+		{
+			short code = codes[first+i];
+			dest[destOffset+i] = code == EMPTY_CODE ? noData : decode(code, offset, scale);
+		}
+	}
+
+	/**
+	 * Returns the backing array, for bulk reads and writes. Row y starts at index y*numColumns.
+	 * @return The row-major elevation array.
+	 * @throws UnsupportedOperationException If the grid is quantized, and so has no float array.
+	 */
+	public final float[] getData()
+	{
+		if(codes != null)
+			throw new UnsupportedOperationException("A quantized grid has no float array; read it with get.");
+		return data;
+	}
+
+	/**
+	 * @return true if the grid stores 16-bit codes rather than floats.
+	 */
+	public final boolean isQuantized()
+	{
+		return codes != null;
+	}
+
+	/**
+	 * @return The largest difference between an elevation and its quantized value, or 0 if
+	 *         the grid is not quantized.
+	 */
+	public final double getMaxError()
+	{
+		return maxError;
+	}
+
+	/**
+	 * Makes a quantized copy of the grid, whose codes are spread evenly from its lowest to its
+	 * highest elevation. Empty cells stay empty.
+	 * @param noData - The value marking empty cells.
+	 * @return The quantized grid, or this grid if it is already quantized.
+	 */
+	public HeightGrid quantize(float noData)
+	{
+		if(codes != null)
+			return this;
+		float low = Float.POSITIVE_INFINITY, high = Float.NEGATIVE_INFINITY;
+		for (float value : data)
+		{
+			if(value == noData) continue;
+			if(value < low) low = value;
+			if(value > high) high = value;
+		}
+		if(low > high)
+			low = high = 0;
+		float scale = (high-low)/NUM_CODES;
+		short[] quantizedCodes = new short[data.length];
+		double maxError = 0;
+		for (int i = 0; i < data.length; i++)
+		{
+			if(data[i] == noData)
+			{
+				quantizedCodes[i] = EMPTY_CODE;
+				continue;
+			}
+			quantizedCodes[i] = encode(data[i], low, scale);
+			maxError = Math.max(maxError, Math.abs(decode(quantizedCodes[i], low, scale)-data[i]));
+		}
+		return new HeightGrid(numColumns, numRows, quantizedCodes, low, scale, noData, maxError);
+	}
+
+	/**
+	 * @return The code nearest an elevation, clamped to the range of codes.
+	 */
+	private static short encode(float value, float offset, float scale)
+	{
+		int step = scale > 0 ? Math.round((value-offset)/scale) : 0;
+		return (short)(FIRST_CODE + Math.max(0, Math.min(NUM_CODES, step)));
+	}
+
+	/**
+	 * @return The elevation a code stands for.
+	 */
+	private static float decode(short code, float offset, float scale)
+	{
+		return offset + scale*(code-FIRST_CODE);
+	}
+}
@@ -0,0 +1,95 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+
+/**
+ * IndexBuffer is a set of GridIndices uploaded to OpenGL as an element array buffer, which draws
+ * a whole grid as one triangle strip. All methods must be called on the GL thread.
+ */
+public class IndexBuffer
+{
+	private final int[] buffer = new int[1];
+	public final int numIndices;
+	public final boolean restart;
+	private final int type, restartIndex;
+	private final long bytes;
+
+	private IndexBuffer(GL2 gl, GridIndices indices)
+	{
+		numIndices = indices.numIndices;
+		restart = indices.restart;
+		type = indices.shortIndices ? GL.GL_UNSIGNED_SHORT : GL.GL_UNSIGNED_INT;
+		restartIndex = indices.getRestartIndex();
+		bytes = indices.getBytes();
+		gl.glGenBuffers(1, buffer, 0);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, buffer[0]);
+		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, bytes, indices.indices, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Uploads a set of indices.
+	 * @param gl - The GL context.
+	 * @param indices - The indices.
+	 * @return The uploaded buffer.
+	 */
+	public static IndexBuffer upload(GL2 gl, GridIndices indices)
+	{
+		return new IndexBuffer(gl, indices);
+	}
+
+	/**
+	 * @param gl - The GL context.
+	 * @return true if the context can restart strips at an index, rather than needing
+	 *         degenerate triangles to join them.
+	 */
+	public static boolean isRestartSupported(GL2 gl)
+	{
+		return gl.isFunctionAvailable("glPrimitiveRestartIndex");
+	}
+
+	/**
+	 * Draws the strip from the vertex arrays currently set up.
+	 * @param gl - The GL context.
+	 */
+	public void draw(GL2 gl)
+	{
+		if(isDeleted()) return;
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, buffer[0]);
+		if(restart)
+		{
+			gl.glEnable(GL2.GL_PRIMITIVE_RESTART);
+			gl.glPrimitiveRestartIndex(restartIndex);
+		}
+		gl.glDrawElements(GL.GL_TRIANGLE_STRIP, numIndices, type, 0);
+		if(restart)
+			gl.glDisable(GL2.GL_PRIMITIVE_RESTART);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * @return The size of the indices, in bytes.
+	 */
+	public long getBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * @return true if the buffer has been deleted, and can no longer be drawn.
+	 */
+	public boolean isDeleted()
+	{
+		return buffer[0] == 0;
+	}
+
+	/**
+	 * Deletes the buffer.
+	 * @param gl - The GL context.
+	 */
+	public void delete(GL2 gl)
+	{
+		if(buffer[0] != 0)
+			gl.glDeleteBuffers(1, buffer, 0);
+		buffer[0] = 0;
+	}
+}
@@ -0,0 +1,124 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * LoadBenchmark is a command-line microbenchmark comparing the two ways of reading a GridFloat
+ * data file: the original decoding of one readInt() per cell from an unbuffered stream, and the
+ * memory-mapped bulk copy that GridFloatReader now uses. Both read the same rows of the file,
+ * and the mapped read is repeated to let the JIT settle. Neither computes any statistics.
+ *
+ *   java LoadBenchmark [-rows n] [-runs n] [-buffered] prefix
+ *
+ * Reading every cell of a large file one readInt() at a time can take minutes, so -rows limits
+ * both reads to the first n rows. -buffered puts a BufferedInputStream under the per-cell reads,
+ * to separate the cost of the system calls from the cost of decoding.
+ */
+public class LoadBenchmark
+{
+	/**
+	 * Reads rows of a data file as the original GridFloatReader did.
+	 * @param extent - The file's header.
+	 * @param rows - The number of rows to read, from the first.
+	 * @param buffered - Whether to buffer the stream.
+	 * @return The heights, row by row.
+	 * @throws IOException If the file cannot be read, or ends before the last row.
+	 */
+	private static float[] readPerCell(GridFloatExtent extent, int rows, boolean buffered) throws IOException
+	{
+		float[] data = new float[rows*extent.numColumns];
+		FileInputStream fileStream = new FileInputStream(extent.prefix+".flt");
+		try(DataInputStream dataFile = new DataInputStream(buffered ? new BufferedInputStream(fileStream) : fileStream))
+		{
+			for (int i = 0; i < data.length; i++)
+				data[i] = Float.intBitsToFloat(extent.bigEndian ? dataFile.readInt() : Integer.reverseBytes(dataFile.readInt()));
+		}
+		catch(EOFException e)
+		{
+			throw new EOFException(extent.prefix+".flt ended before row "+rows+".");
+		}
+		return data;
+	}
+
+	/**
+	 * The main method times both reads of the dataset named on the command line.
+	 * @param args The options and dataset; see the class description.
+	 */
+	public static void main(String[] args)
+	{
+		int rows = -1, runs = 5;
+		boolean buffered = false;
+		String prefix = null;
+		try
+		{
+			for (int i = 0; i < args.length; i++)
+			{
+				if(args[i].equals("-rows"))
+					rows = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-runs"))
+					runs = Integer.parseInt(args[++i]);
+				else if(args[i].equals("-buffered"))
+					buffered = true;
+				else
+					prefix = GridFloatReader.getPrefix(args[i]);
+			}
+		}
+		catch(NumberFormatException | ArrayIndexOutOfBoundsException e)
+		{
+			prefix = null;
+		}
+		if(prefix == null || runs < 1)
+		{
+			System.err.println("Usage: java LoadBenchmark [-rows n] [-runs n] [-buffered] prefix");
+			System.exit(2);
+		}
+		if(GridFloatReader.isDataCompressed(prefix))
+		{
+			System.err.println(prefix+".flt is compressed, and cannot be memory-mapped.");
+			System.exit(1);
+		}
+
+		try
+		{
+			GridFloatExtent extent = GridFloatExtent.probe(prefix);
+			if(rows < 1 || rows > extent.numRows)
+				rows = extent.numRows;
+			double megabytes = 4.*rows*extent.numColumns/1048576;
+
+			long startTime = System.nanoTime();
+			float[] perCell = readPerCell(extent, rows, buffered);
+			long perCellTime = System.nanoTime()-startTime;
+
+			long mappedTime = Long.MAX_VALUE;
+			HeightGrid mapped = null;
+			for (int run = 0; run < runs; run++)
+			{
+				startTime = System.nanoTime();
+				mapped = GridFloatReader.readHeights(extent, 0, 0, rows, extent.numColumns);
+				if(mapped == null)
+					throw new IOException(prefix+".flt could not be mapped.");
+				mappedTime = Math.min(mappedTime, System.nanoTime()-startTime);
+			}
+
+			boolean identical = true;
+			for (int i = 0; i < perCell.length && identical; i++)
+				identical = Float.floatToIntBits(perCell[i]) == Float.floatToIntBits(mapped.get(i%extent.numColumns, i/extent.numColumns));
+
+			System.out.println(String.format("%d columns X %d rows (%.1f MB)", extent.numColumns, rows, megabytes));
+			System.out.println(String.format("Per-cell readInt (%s): %d ms, %.1f MB/s", buffered ? "buffered" : "unbuffered",
+					perCellTime/1000000, megabytes/(perCellTime/1e9)));
+			System.out.println(String.format("Memory-mapped (best of %d): %d ms, %.1f MB/s", runs,
+					mappedTime/1000000, megabytes/(mappedTime/1e9)));
+			System.out.println(String.format("Speedup: %.1fx; the heights are %s.", (double)perCellTime/mappedTime,
+					identical ? "identical" : "DIFFERENT"));
+		}
+		catch(IOException e)
+		{
+			System.err.println(prefix+".flt could not be read.");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,14 @@
+/**
+ * LoadProgress receives progress reports from a GridFloatReader while it loads a dataset. A load
+ * can be cancelled by throwing a CancellationException from update, or by interrupting the
+ * loading thread.
+ */
+public interface LoadProgress
+{
+	/**
+	 * Called as each step of a load advances.
+	 * @param step - A short description of the current step.
+	 * @param fraction - How much of the step is complete, from 0 to 1.
+	 */
+	void update(String step, double fraction);
+}
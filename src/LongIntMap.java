@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+/**
+ * LongIntMap maps non-negative long keys to int values, without boxing either, by open addressing
+ * with linear probing in a single array of keys and one of values. Entries cannot be removed.
+ */
+public class LongIntMap
+{
+	//Marks an unused slot; keys must not be negative.
+	private static final long EMPTY = -1;
+
+	private long[] keys;
+	private int[] values;
+	private int size, mask;
+
+	/**
+	 * Creates an empty map with room for a number of entries before it must grow.
+	 * @param expected - The number of entries expected.
+	 */
+	public LongIntMap(int expected)
+	{
+		int capacity = Integer.highestOneBit(Math.max(4, expected)*2-1)*2;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		mask = capacity-1;
+	}
+
+	/**
+	 * @return The first slot to probe for a key, from a multiplicative hash of it.
+	 */
+	private int slot(long key)
+	{
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int)(hash ^ (hash >>> 32)) & mask;
+	}
+
+	/**
+	 * Maps a key to a value if the key has no value yet.
+	 * @param key - The key, which must not be negative.
+	 * @param value - The value.
+	 * @return The key's existing value, or -1 if it had none and the value was stored.
+	 */
+	public int putIfAbsent(long key, int value)
+	{
+		int i = slot(key);
+		while (keys[i] != EMPTY)
+		{
+			if(keys[i] == key) return values[i];
+			i = (i+1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		//Keep the table at most half full.
+		if(++size*2 > keys.length)
+			grow();
+		return -1;
+	}
+
+	/**
+	 * @param key - The key.
+	 * @return The key's value, or -1 if it has none.
+	 */
+	public int get(long key)
+	{
+		for (int i = slot(key); keys[i] != EMPTY; i = (i+1) & mask)
+			if(keys[i] == key) return values[i];
+		return -1;
+	}
+
+	/**
+	 * @return The number of entries in the map.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	private void grow()
+	{
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(2*oldKeys.length);
+		for (int j = 0; j < oldKeys.length; j++)
+		{
+			if(oldKeys[j] == EMPTY) continue;
+			int i = slot(oldKeys[j]);
+			while (keys[i] != EMPTY)
+				i = (i+1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+}
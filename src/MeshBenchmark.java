@@ -0,0 +1,104 @@
+/**
+ * MeshBenchmark is a command-line check of TerrainMesh, which needs no OpenGL. It meshes a small
+ * sloping plane with a hole in it, tall enough to be built in several bands, and compares every
+ * vertex with the plane's known position, normal, texture coordinates, and elevation. Given a
+ * dataset, it then times the mesh of the largest overview level that fits in
+ * TerrainMesh.MAX_VERTICES.
+ *
+ *   java MeshBenchmark [prefix]
+ *
+ * It exits with status 1 if any vertex is wrong or the dataset cannot be meshed.
+ */
+public class MeshBenchmark
+{
+	private static final float NO_DATA = -9999;
+
+	/**
+	 * Checks the mesh of a grid against what it should be.
+	 * @param grid - The grid that was meshed.
+	 * @param mask - The grid's non-empty cells.
+	 * @param mesh - The mesh of the grid, built with left = 0, top = 0, heightScale = 1, and baseHeight = 0.
+	 * @param step - The stepX and stepY the mesh was built with.
+	 * @param normal - The normal every valid point should have.
+	 * @return The number of floats that are wrong.
+	 */
+	private static int check(HeightGrid grid, ValidityMask mask, TerrainMesh mesh, double step, double[] normal)
+	{
+		int errors = 0;
+		for (int y = 0; y < grid.numRows; y++)
+			for (int x = 0; x < grid.numColumns; x++)
+			{
+				int i = TerrainMesh.FLOATS_PER_VERTEX*(y*grid.numColumns+x);
+				boolean valid = mask.isValid(x, y);
+				double[] expected = new double[TerrainMesh.FLOATS_PER_VERTEX];
+				expected[TerrainMesh.POSITION_OFFSET] = x*step;
+				expected[TerrainMesh.POSITION_OFFSET+1] = -y*step;
+				expected[TerrainMesh.POSITION_OFFSET+2] = valid ? grid.get(x, y) : 0;
+				System.arraycopy(normal, 0, expected, TerrainMesh.NORMAL_OFFSET, 3);
+				expected[TerrainMesh.TEXCOORD_OFFSET] = (double)x/(grid.numColumns-1);
+				expected[TerrainMesh.TEXCOORD_OFFSET+1] = (double)(grid.numRows-1-y)/(grid.numRows-1);
+				expected[TerrainMesh.ELEVATION_OFFSET] = valid ? grid.get(x, y) : 0;
+				for (int j = 0; j < TerrainMesh.FLOATS_PER_VERTEX; j++)
+				{
+					//Empty points are never drawn, so their normals are left unchecked.
+					if(!valid && j >= TerrainMesh.NORMAL_OFFSET && j < TerrainMesh.NORMAL_OFFSET+3)
+						continue;
+					if(Math.abs(mesh.vertices.get(i+j)-expected[j]) > 1e-4*Math.max(1, Math.abs(expected[j])))
+						errors++;
+				}
+			}
+		return errors;
+	}
+
+	/**
+	 * The main method checks the plane's mesh, then times the mesh of the dataset named on the
+	 * command line, if there is one.
+	 * @param args An optional dataset; see the class description.
+	 */
+	public static void main(String[] args)
+	{
+		int columns = 150, rows = 259;
+		double step = 30, slopeX = 0.25, slopeY = -0.5;
+		HeightGrid plane = new HeightGrid(columns, rows);
+		for (int y = 0; y < rows; y++)
+			for (int x = 0; x < columns; x++)
+				plane.set(x, y, (float)(1000 + slopeX*x*step + slopeY*y*step));
+		for (int y = rows/3; y < rows/2; y++)
+			for (int x = columns/4; x < columns/2; x++)
+				plane.set(x, y, NO_DATA);
+		ValidityMask mask = ValidityMask.build(plane, NO_DATA);
+
+		//Rows run south, so the surface rises by -slopeY going north, along the y axis.
+		double length = Math.sqrt(slopeX*slopeX + slopeY*slopeY + 1);
+		int errors = check(plane, mask, TerrainMesh.build(plane, mask, 0, 0, step, step, 1, 0), step,
+						   new double[]{-slopeX/length, slopeY/length, 1/length});
+		System.out.println(columns+" X "+rows+" plane, "+(columns*rows-mask.getNumValid())+" empty points: "
+				+(errors == 0 ? "OK" : errors+" wrong values"));
+
+		if(args.length > 0)
+		{
+			String prefix = GridFloatReader.getPrefix(args[0]);
+			try
+			{
+				GridFloatReader data = GridFloatReader.load(prefix, null, false, Runtime.getRuntime().maxMemory()/2);
+				if(data.height == null)
+					throw new IllegalStateException("No heights could be read.");
+				OverviewPyramid overviews = data.getOverviews();
+				int level = overviews.getLevelForCells(TerrainMesh.MAX_VERTICES);
+				HeightGrid grid = overviews.getLevel(level);
+				long startTime = System.nanoTime();
+				TerrainMesh mesh = TerrainMesh.build(grid, data.getValidCells(level), 0, 0, 1, 1, 1, data.avgHeight);
+				long buildTime = System.nanoTime()-startTime;
+				System.out.println(grid.numColumns+" X "+grid.numRows+" mesh (level "+level+"): "+buildTime/1000000+" ms, "
+						+mesh.getVertexBytes()/1048576+" MB");
+			}
+			catch(RuntimeException e)
+			{
+				System.err.println(prefix+" could not be meshed.");
+				e.printStackTrace();
+				errors++;
+			}
+		}
+		System.exit(errors == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * OverviewPyramid holds a grid along with successively reduced copies of it, each half the
+ * size of the last along both axes. Level 0 is the original grid. Each cell of a reduced level
+ * combines the (up to four) non-empty cells it covers in the level above it, by averaging them
+ * unless another Downsampler filter is asked for.
+ */
+public class OverviewPyramid
+{
+	//Levels stop being added once both dimensions are at most this size.
+	private static final int MIN_LEVEL_SIZE = 32;
+	private final HeightGrid[] levels;
+
+	/**
+	 * @param levels - The levels of the pyramid, starting with the full-resolution grid.
+	 */
+	public OverviewPyramid(HeightGrid[] levels)
+	{
+		this.levels = levels;
+	}
+
+	/**
+	 * Builds the reduced levels for a grid, averaging the cells of each level into the next.
+	 * @param base - The full-resolution grid.
+	 * @param noData - The value marking empty cells.
+	 * @return The pyramid for the grid.
+	 */
+	public static OverviewPyramid build(HeightGrid base, float noData)
+	{
+		return build(base, noData, Downsampler.Filter.BOX);
+	}
+
+	/**
+	 * Builds the reduced levels for a grid, combining the cells of each level into the next with
+	 * a filter. The minimum and maximum filters give every level the true extremes of the full-
+	 * resolution cells it covers.
+	 * @param base - The full-resolution grid.
+	 * @param noData - The value marking empty cells.
+	 * @param filter - How to combine each 2 X 2 block of cells.
+	 * @return The pyramid for the grid.
+	 */
+	public static OverviewPyramid build(HeightGrid base, float noData, Downsampler.Filter filter)
+	{
+		int numLevels = 1;
+		for (int size = Math.max(base.numColumns, base.numRows); size > MIN_LEVEL_SIZE; size = (size+1)/2)
+			numLevels++;
+		HeightGrid[] levels = new HeightGrid[numLevels];
+		levels[0] = base;
+		for (int i = 1; i < numLevels; i++)
+			levels[i] = Downsampler.reduce(levels[i-1], noData, 2, filter);
+		return new OverviewPyramid(levels);
+	}
+
+	/**
+	 * Finds the highest-resolution level that has no more than a given number of rows and columns.
+	 * @param maxSize - The largest number of rows or columns wanted.
+	 * @return The first level whose dimensions are both at most maxSize, or the last level.
+	 */
+	public int getLevelForSize(int maxSize)
+	{
+		int level = 0;
+		while (level < levels.length-1 && Math.max(levels[level].numColumns, levels[level].numRows) > maxSize)
+			level++;
+		return level;
+	}
+
+	/**
+	 * Finds the highest-resolution level that has no more than a given number of cells.
+	 * @param maxCells - The most cells wanted.
+	 * @return The first level with at most maxCells cells, or the last level.
+	 */
+	public int getLevelForCells(long maxCells)
+	{
+		int level = 0;
+		while (level < levels.length-1 && (long)levels[level].numColumns*levels[level].numRows > maxCells)
+			level++;
+		return level;
+	}
+
+	/**
+	 * Makes a copy of the pyramid with every level quantized to 16 bits.
+	 * @param noData - The value marking empty cells.
+	 * @return The quantized pyramid.
+	 */
+	public OverviewPyramid quantize(float noData)
+	{
+		HeightGrid[] quantized = new HeightGrid[levels.length];
+		for (int i = 0; i < levels.length; i++)
+			quantized[i] = levels[i].quantize(noData);
+		return new OverviewPyramid(quantized);
+	}
+
+	/**
+	 * @return The number of levels, including the full-resolution grid.
+	 */
+	public int getNumLevels()
+	{
+		return levels.length;
+	}
+
+	/**
+	 * @param level - The level to get, where 0 is the full-resolution grid.
+	 * @return The grid at that level, reduced by a factor of 2^level.
+	 */
+	public HeightGrid getLevel(int level)
+	{
+		return levels[level];
+	}
+}
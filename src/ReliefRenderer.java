@@ -0,0 +1,79 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * ReliefRenderer draws a shaded relief image of a height grid, one pixel per cell, without
+ * OpenGL, so that images can be made on a headless machine. Each pixel is colored along a ramp
+ * between two elevations, as TerrainVis colors its mesh, and darkened according to how
+ * directly its cell faces a light in the northwest. Empty cells are left transparent.
+ */
+public class ReliefRenderer
+{
+	//The direction of the light, in degrees clockwise from north and above the horizon.
+	private static final double LIGHT_AZIMUTH = 315.;
+	private static final double LIGHT_ALTITUDE = 45.;
+	//The brightness of a cell facing directly away from the light.
+	private static final double AMBIENT = 0.35;
+
+	/**
+	 * Renders a grid.
+	 * @param grid - The grid (or overview level) to render.
+	 * @param noData - The value marking empty cells.
+	 * @param cellWidth - The east-west size of a cell, in elevation units.
+	 * @param cellHeight - The north-south size of a cell, in elevation units.
+	 * @param lowHeight - The elevation at the low end of the color ramp.
+	 * @param highHeight - The elevation at the high end of the color ramp.
+	 * @param lowColor - The color of cells at or below lowHeight.
+	 * @param highColor - The color of cells at or above highHeight.
+	 * @return The image, with row 0 at the top.
+	 */
+	public static BufferedImage render(HeightGrid grid, float noData, double cellWidth, double cellHeight,
+									   double lowHeight, double highHeight, Color lowColor, Color highColor)
+	{
+		BufferedImage image = new BufferedImage(grid.numColumns, grid.numRows, BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		double azimuth = Math.toRadians(LIGHT_AZIMUTH), altitude = Math.toRadians(LIGHT_ALTITUDE);
+		double lightEast = Math.sin(azimuth)*Math.cos(altitude);
+		double lightNorth = Math.cos(azimuth)*Math.cos(altitude);
+		double lightUp = Math.sin(altitude);
+		double heightRange = highHeight > lowHeight ? highHeight-lowHeight : 1.;
+
+		for (int y = 0; y < grid.numRows; y++)
+		{
+			for (int x = 0; x < grid.numColumns; x++)
+			{
+				float center = grid.get(x, y);
+				if(center == noData) continue;
+
+				//Find the slope from the neighboring cells, using the center for missing ones.
+				float west = neighbor(grid, noData, x-1, y, center), east = neighbor(grid, noData, x+1, y, center);
+				float north = neighbor(grid, noData, x, y-1, center), south = neighbor(grid, noData, x, y+1, center);
+				double slopeEast = (east-west)/(2*cellWidth);
+				double slopeNorth = (north-south)/(2*cellHeight);
+				double shade = (lightUp - slopeEast*lightEast - slopeNorth*lightNorth)
+							 / Math.sqrt(1 + slopeEast*slopeEast + slopeNorth*slopeNorth);
+				double brightness = AMBIENT + (1-AMBIENT)*Math.max(0, shade);
+
+				double percentElev = Math.max(0, Math.min(1, (center-lowHeight)/heightRange));
+				int red = (int)(brightness*(lowColor.getRed() + (highColor.getRed()-lowColor.getRed())*percentElev));
+				int green = (int)(brightness*(lowColor.getGreen() + (highColor.getGreen()-lowColor.getGreen())*percentElev));
+				int blue = (int)(brightness*(lowColor.getBlue() + (highColor.getBlue()-lowColor.getBlue())*percentElev));
+				pixels[y*grid.numColumns + x] = 0xff000000 | red << 16 | green << 8 | blue;
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * @return The elevation of a cell, or the given elevation if the cell is empty or outside
+	 *         the grid.
+	 */
+	private static float neighbor(HeightGrid grid, float noData, int x, int y, float center)
+	{
+		if(x < 0 || y < 0 || x >= grid.numColumns || y >= grid.numRows)
+			return center;
+		float value = grid.get(x, y);
+		return value == noData ? center : value;
+	}
+}
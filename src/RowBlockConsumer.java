@@ -0,0 +1,25 @@
+/**
+ * RowBlockConsumer is a stage in a pipeline fed by GridFloatReader.streamRows. It receives
+ * a GridFloat dataset as a series of blocks of consecutive rows, from north to south.
+ */
+public interface RowBlockConsumer
+{
+	/**
+	 * Called once before the first block.
+	 * @param header - A reader describing the dataset, whose height grid may not be loaded.
+	 */
+	void start(GridFloatReader header);
+
+	/**
+	 * Called for each block of rows. The block array is reused for the following block.
+	 * @param block - The cells of the block, row-major, header.numColumns cells per row.
+	 * @param firstRow - The row of the dataset that the block starts at.
+	 * @param numRows - The number of rows in the block.
+	 */
+	void accept(float[] block, int firstRow, int numRows);
+
+	/**
+	 * Called once after the last block.
+	 */
+	void finish();
+}
@@ -39,6 +39,7 @@ import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.JProgressBar;
 import javax.swing.JRootPane;
 import javax.swing.KeyStroke;
 import javax.swing.UIManager;
@@ -48,6 +49,7 @@ import com.jogamp.opengl.util.texture.Texture;
 import com.jogamp.opengl.util.texture.TextureData;
 import com.jogamp.opengl.util.texture.TextureIO;
 
+import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
@@ -68,6 +70,10 @@ import java.nio.FloatBuffer;
 import java.security.CodeSource;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class SceneWalkthrough extends JFrame implements GLEventListener, MouseListener, MouseMotionListener, MouseWheelListener
 {
@@ -138,12 +144,20 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 	private static final boolean DEFAULT_SHOW_WIREFRAME_VALUE = false;
 	private static final boolean DEFAULT_FLY_MODE_VALUE = false;
 	private static final double GRID_SCALE = 1.; //Directly related to the value of Z_NEAR, to prevent clipping too far from the camera.
+	private static final int MOSAIC_WINDOW_CELLS = 2048; //The rows and columns of a tile directory shown at once.
+	private static final int MOSAIC_RECENTER_MARGIN = 256; //How close to the window's edge, in cells, the camera may come.
+	private static final long MAX_MESH_VERTICES = 1L << 23; //Larger grids are meshed from a reduced overview level.
 	
 	//Terrain Display Information
 	private static String currentDatafile = "";
 	private static boolean showMarker = DEFAULT_SHOW_MARKER_VALUE;
 	private static boolean showWireframe = DEFAULT_SHOW_WIREFRAME_VALUE;
 	private static GridFloatReader gridData;
+	private static final AtomicReference<GridFloatReader> pendingData = new AtomicReference<GridFloatReader>();
+	private static final AtomicReference<GridFloatReader> pendingWindow = new AtomicReference<GridFloatReader>();
+	private static volatile boolean recenterPending = false;
+	//The mosaic row and column of the last window that could not be read, or null.
+	private static volatile int[] failedCenter = null;
 	private static double gridWidth, gridHeight, unitsPerMeter,
 						  cellSizeX, cellSizeY;
 	private static final float[] GRID_MAT_AMBIENT = new float[]{1.0f, 1.0f, 1.0f, 1.0f};
@@ -191,7 +205,10 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 	//Display List IDs 
 	private boolean listNumsGenerated = false;
 	private boolean meshGenerated = false;
-	private int meshList, markerList;
+	private int markerList;
+	
+	//The terrain is drawn from vertex buffers.
+	private final TerrainMeshRenderer terrainRenderer = new TerrainMeshRenderer();
 	
 	//OpenGL Display and Interaction Entities
 	private GL2 gl2;
@@ -227,6 +244,12 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 	private JMenuBar topMenuBar;
 	private JMenu topMenu;
 	private JMenuItem openFileButton;
+	private JMenuItem openDirectoryButton;
+	private JCheckBoxMenuItem quantizeCheckbox;
+	private JMenuItem cancelLoadButton;
+	private JProgressBar loadProgressBar;
+	private DatasetLoader loader;
+	private ExecutorService windowReader;
 	private JMenuItem speedButton;
 	private JMenuItem resetButton;
 	private JMenuItem quitButton;
@@ -334,11 +357,17 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 		}
 		
 		this.add(myCanvas);
+		loadProgressBar = new JProgressBar(0, 100);
+		loadProgressBar.setVisible(false);
+		this.add(loadProgressBar, BorderLayout.SOUTH);
 		
 		topMenuBar = new JMenuBar();
 		topMenu = new JMenu("Options");
 		topMenu.setMnemonic(KeyEvent.VK_O);
 		openFileButton = new JMenuItem("Open File...");
+		openDirectoryButton = new JMenuItem("Open Tile Directory...");
+		quantizeCheckbox = new JCheckBoxMenuItem("Load 16-bit heights",false); //Applies to datasets opened afterwards.
+		cancelLoadButton = new JMenuItem("Cancel Loading");
 		markerCheckbox = new JCheckBoxMenuItem("Show marker",true);
 		wireframeCheckbox = new JCheckBoxMenuItem("Show wireframe",false);
 		flyCheckbox = new JCheckBoxMenuItem("Allow flying",false);
@@ -349,6 +378,9 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 		this.setJMenuBar(topMenuBar);
 		topMenuBar.add(topMenu);
 		topMenu.add(openFileButton);
+		topMenu.add(openDirectoryButton);
+		topMenu.add(quantizeCheckbox);
+		topMenu.add(cancelLoadButton);
 		topMenu.addSeparator();
 		topMenu.add(markerCheckbox);
 		topMenu.add(wireframeCheckbox);
@@ -370,6 +402,19 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 				handleLoadFile();
 			}
 		});
+		openDirectoryButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				handleLoadDirectory();
+			}
+		});
+		cancelLoadButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				if(loader != null) loader.cancel(true);
+			}
+		});
+		cancelLoadButton.setEnabled(false);
 		markerCheckbox.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
@@ -416,8 +461,8 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 	}
 	
 	/**
-	 * handleLoadFile prompts the user to choose a file, uses gridFloatReader to read in the
-	 * file information, and processes it.
+	 * handleLoadFile prompts the user to choose a file, and starts a DatasetLoader to read in the
+	 * file information in the background. Any load already in progress is cancelled.
 	 */
 	private void handleLoadFile()
 	{
@@ -426,35 +471,182 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 		if(returnVal == JFileChooser.APPROVE_OPTION)
 		{
 			File newFile = openFileDialog.getSelectedFile();
-			String newDataFile = newFile.getPath();
-			int dotPosition = newDataFile.lastIndexOf('.');
-			if(dotPosition >= -1) newDataFile = newDataFile.substring(0,dotPosition);
+			String newDataFile = GridFloatReader.getPrefix(newFile.getPath());
 			
-			//If the same file is chosen, do nothing.
-			if(!newDataFile.equals(currentDatafile))
+			//If the same file is chosen, or is already loading, do nothing.
+			if(!newDataFile.equals(currentDatafile)
+					&& (loader == null || loader.isDone() || !newDataFile.equals(loader.getPrefix())))
 			{
-				currentDatafile = newDataFile;
-				gridData = new GridFloatReader(currentDatafile);
-
-		    	unitsPerMeter = (GRID_SCALE/gridData.numRows)/gridData.cellSizeY;
-		    	cellSizeY = unitsPerMeter*gridData.cellSizeY;
-		    	cellSizeX = unitsPerMeter*gridData.cellSizeX;
-			    gridWidth = (gridData.numColumns-1)*cellSizeX;
-			    gridHeight = (gridData.numRows-1)*cellSizeY;
-			    
-		        //Enable UI buttons
-				markerCheckbox.setEnabled(true);
-				wireframeCheckbox.setEnabled(true);
-				flyCheckbox.setEnabled(true);
-				speedButton.setEnabled(true);
-				resetButton.setEnabled(true);
-				
-				//Notify the GL context to generate the display lists.
-				meshGenerated = false;
+				if(loader != null) loader.cancel(true);
+				loader = new DatasetLoader(newDataFile, quantizeCheckbox.isSelected(), loadProgressBar, cancelLoadButton) {
+					@Override
+					protected void loaded(GridFloatReader data) {
+						showNewData(getPrefix(), data);
+					}
+				};
+				loader.execute();
 			}
    		}
 	}
 	
+	/**
+	 * handleLoadDirectory prompts the user to choose a directory of GridFloat tiles, and starts a
+	 * DatasetLoader to catalogue them as a TileMosaic and read the window at its center. As the
+	 * camera nears the edge of the window, further windows are read around it in the background.
+	 */
+	private void handleLoadDirectory()
+	{
+		JFileChooser openDirectoryDialog = new JFileChooser(appFilePath);
+		openDirectoryDialog.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+		int returnVal = openDirectoryDialog.showOpenDialog(this);
+		if(returnVal == JFileChooser.APPROVE_OPTION)
+		{
+			String newDirectory = openDirectoryDialog.getSelectedFile().getPath();
+			
+			//If the same directory is chosen, or is already loading, do nothing.
+			if(!newDirectory.equals(currentDatafile)
+					&& (loader == null || loader.isDone() || !newDirectory.equals(loader.getPrefix())))
+			{
+				if(loader != null) loader.cancel(true);
+				loader = new DatasetLoader(newDirectory, quantizeCheckbox.isSelected(), loadProgressBar, cancelLoadButton) {
+					@Override
+					protected GridFloatReader read() {
+						update("Cataloguing tiles", 0);
+						TileMosaic mosaic = new TileMosaic(getPrefix(), TileCatalog.scan(new File(getPrefix())),
+								Runtime.getRuntime().maxMemory()/4);
+						update("Reading tiles", 0.5);
+						return mosaic.readWindowAround(mosaic.numRows/2, mosaic.numColumns/2, MOSAIC_WINDOW_CELLS);
+					}
+					
+					@Override
+					protected void loaded(GridFloatReader data) {
+						showNewData(getPrefix(), data);
+					}
+				};
+				loader.execute();
+			}
+		}
+	}
+	
+	/**
+	 * showNewData enables the UI for a newly loaded dataset, then hands the dataset to the
+	 * GL context, which swaps it in at the start of its next frame.
+	 * @param newDataFile - The filename (minus extension) the data was read from.
+	 * @param newData - The loaded dataset.
+	 */
+	private void showNewData(String newDataFile, GridFloatReader newData)
+	{
+		//Hold off regenerating the old dataset's display lists until the swap.
+		meshGenerated = true;
+		currentDatafile = newDataFile;
+		
+		//Enable UI buttons
+		markerCheckbox.setEnabled(true);
+		wireframeCheckbox.setEnabled(true);
+		flyCheckbox.setEnabled(true);
+		speedButton.setEnabled(true);
+		resetButton.setEnabled(true);
+		
+		pendingData.set(newData);
+	}
+	
+	/**
+	 * setGridData swaps in a newly loaded dataset. It is called on the GL thread, between frames,
+	 * so the camera and display lists never see a mix of the old and new datasets.
+	 * @param newData - The dataset to display.
+	 */
+	private void setGridData(GridFloatReader newData)
+	{
+		//Moving to another window of the same mosaic keeps the camera where it is on the ground.
+		GridFloatReader oldData = gridData;
+		boolean sameMosaic = oldData != null && oldData.mosaic != null && oldData.mosaic == newData.mosaic;
+		double[] camCell = sameMosaic ? worldToCell(camPos[0], camPos[1]) : null;
+		double camElevation = sameMosaic ? camPos[2]/unitsPerMeter + oldData.avgHeight : 0;
+		double oldUnitsPerMeter = unitsPerMeter;
+		
+		gridData = newData;
+
+		unitsPerMeter = (GRID_SCALE/gridData.numRows)/gridData.cellSizeY;
+		cellSizeY = unitsPerMeter*gridData.cellSizeY;
+		cellSizeX = unitsPerMeter*gridData.cellSizeX;
+		gridWidth = (gridData.numColumns-1)*cellSizeX;
+		gridHeight = (gridData.numRows-1)*cellSizeY;
+		
+		if(sameMosaic && camCell[0] != -1)
+		{
+			double[] camWorld = cellToWorld(camCell[0] + oldData.firstColumn - gridData.firstColumn,
+											camCell[1] + oldData.firstRow - gridData.firstRow);
+			camPos = new double[]{camWorld[0], camWorld[1], (camElevation-gridData.avgHeight)*unitsPerMeter};
+			camVelocity *= unitsPerMeter/oldUnitsPerMeter;
+			projectiles.clear();
+		}
+		
+		//Notify the GL context to generate the display lists.
+		meshGenerated = false;
+	}
+	
+	/**
+	 * recenterMosaic starts reading a new window of the mosaic around the camera once it comes
+	 * near the edge of the current one, if the mosaic extends past that edge. The window is read
+	 * on a background thread and swapped in by display once it is ready. If a read fails, no
+	 * other is tried until the camera moves MOSAIC_RECENTER_MARGIN cells from where it was, rather
+	 * than failing again on every frame.
+	 */
+	private void recenterMosaic()
+	{
+		final TileMosaic mosaic = gridData.mosaic;
+		if(mosaic == null || recenterPending)
+			return;
+		double[] camCell = worldToCell(camPos[0], camPos[1]);
+		if(camCell[0] == -1 || camCell[1] == -1)
+			return;
+		boolean nearEdge = (camCell[0] < MOSAIC_RECENTER_MARGIN && gridData.firstColumn > 0)
+				|| (camCell[0] > gridData.numColumns-MOSAIC_RECENTER_MARGIN && gridData.firstColumn+gridData.numColumns < mosaic.numColumns)
+				|| (camCell[1] < MOSAIC_RECENTER_MARGIN && gridData.firstRow > 0)
+				|| (camCell[1] > gridData.numRows-MOSAIC_RECENTER_MARGIN && gridData.firstRow+gridData.numRows < mosaic.numRows);
+		if(!nearEdge)
+			return;
+		
+		final int centerRow = gridData.firstRow + (int)camCell[1];
+		final int centerColumn = gridData.firstColumn + (int)camCell[0];
+		int[] failed = failedCenter;
+		if(failed != null && Math.abs(centerRow-failed[0]) < MOSAIC_RECENTER_MARGIN
+				&& Math.abs(centerColumn-failed[1]) < MOSAIC_RECENTER_MARGIN)
+			return;
+		final boolean quantize = gridData.height.isQuantized();
+		recenterPending = true;
+		if(windowReader == null)
+		{
+			windowReader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "Mosaic window reader");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		windowReader.execute(new Runnable() {
+			@Override
+			public void run() {
+				try
+				{
+					GridFloatReader window = mosaic.readWindowAround(centerRow, centerColumn, MOSAIC_WINDOW_CELLS);
+					if(quantize)
+						window.quantizeHeights();
+					pendingWindow.set(window);
+				}
+				catch(RuntimeException e)
+				{
+					System.err.println("The mosaic could not be read around ("+centerColumn+", "+centerRow+").");
+					e.printStackTrace();
+					failedCenter = new int[]{centerRow, centerColumn};
+					recenterPending = false;
+				}
+			}
+		});
+	}
+	
 	/**
 	 * handleAdjustSpeed prompts the user to enter a new speed multiplier for walking speed.
 	 */
@@ -514,8 +706,10 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 	}
 
 	/**
-	 * A wrapper method which stores terrain and marker display commands in a display list instead
-	 * of executing them immediately. meshGenerated should not be true.
+	 * Loads the terrain's texture, builds the terrain mesh and uploads it to the terrain renderer,
+	 * and stores the marker's display commands in a display list. meshGenerated should not be true.
+	 * A grid of more than MAX_MESH_VERTICES points is meshed from the first overview level that
+	 * fits, while the ground the camera walks on stays at full resolution.
 	 */
 	private void generateMeshes()
 	{
@@ -549,23 +743,24 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 			gridTexture = null;
 		}
 		
-        gl2.glNewList(meshList, GL2.GL_COMPILE);
-        drawTerrain();
-        gl2.glEndList();
+        OverviewPyramid overviews = gridData.getOverviews();
+        int level = overviews.getLevelForCells(Math.min(MAX_MESH_VERTICES, TerrainMesh.MAX_VERTICES));
+        if(level > 0)
+        	System.out.println("Meshing the terrain at 1/"+(1 << level)+" resolution, to stay within "+MAX_MESH_VERTICES+" vertices.");
+        terrainRenderer.upload(gl2, TerrainMesh.build(overviews.getLevel(level), gridData.getValidCells(level), -gridWidth/2,
+        											  gridHeight/2, cellSizeX*(1 << level), cellSizeY*(1 << level),
+        											  unitsPerMeter, gridData.avgHeight));
         gl2.glNewList(markerList, GL2.GL_COMPILE);
         drawMarker();
         gl2.glEndList();
 	}
 
 	/**
-	 * drawTerrain loops across each of the cells for which we have data, and draws a
-	 * triangle strip for each column.  It calls getVertexNormal to get the normal for
-	 * each point, and defines texture coordinates for each.
+	 * drawTerrain draws the uploaded terrain mesh, lit by its vertex normals and covered by the
+	 * terrain's texture.
 	 */
 	private void drawTerrain()
 	{
-		if(gridData == null) return;
-		
 		if(gridTexture != null)
 		{
 			gridTexture.enable(gl2);
@@ -578,116 +773,7 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 		gl2.glMaterialfv(GL2.GL_FRONT, GL2.GL_SPECULAR, FloatBuffer.wrap(gridSpecular));
 		gl2.glMaterialf(GL2.GL_FRONT, GL2.GL_SHININESS, gridShininess);
 		
-		//Offsets for the grid, to center it.
-		double gridX = -gridWidth/2;
-		double gridY = -gridHeight/2;
-		
-		//Iterate through cells bottom-to-top, left-to-right
-		//Get the lower-left-hand corner of each as cellX, cellY
-		for(int x = 0; x < gridData.numColumns-2; x++)
-		{
-			double cellX = gridX + x*cellSizeX;
-			gl2.glBegin(GL.GL_TRIANGLE_STRIP);
-			for(int y = 0; y < gridData.numRows; y++)
-			{
-				double cellY = gridY+(gridData.numRows-1-y)*cellSizeY;
-				
-				double[] vNormal = getVertexNormal(x,y);
-				gl2.glNormal3d(vNormal[0], vNormal[1], vNormal[2]);
-				gl2.glTexCoord2d(((double)x)/(gridData.numColumns-1.), ((double)(gridData.numRows-y))/(gridData.numRows-1.));
-				gl2.glVertex3dv(DoubleBuffer.wrap(new double[]{cellX, cellY, unitsPerMeter*(gridData.height[y][x]-gridData.avgHeight)}));
-				
-				vNormal = getVertexNormal(x+1,y);
-				gl2.glNormal3d(vNormal[0], vNormal[1], vNormal[2]);
-				gl2.glTexCoord2d(((double)x+1.)/(gridData.numColumns-1.), ((double)(gridData.numRows-y))/(gridData.numRows-1.));
-				gl2.glVertex3dv(DoubleBuffer.wrap(new double[]{cellX+cellSizeX, cellY, unitsPerMeter*(gridData.height[y][x+1]-gridData.avgHeight)}));
-			}
-			gl2.glEnd();
-		}
-	}
-	
-	/**
-	 * getVertexNormal determines the (normalized) normal vector for the given coordinates in the grid.  It calls
-	 * getTriNormal for each of the surrounding faces, sums these normals, and normalizes the result. 
-	 * @param x the x-coordinate of the point to get the normal for
-	 * @param y the y-coordinate of the point to get the normal for
-	 * @return an array of doubles, length 3, which represents the normal vector at that point
-	 */
-	private double[] getVertexNormal(int x, int y)
-	{
-		ArrayList<double[]> normalsToSum = new ArrayList<double[]>(); 
-		if(x > 0)
-		{
-			double[] cellPos1 = cellToWorld(x-1,y);
-			double[] cellPos2 = cellToWorld(x,y);
-			if(y < gridData.numRows-1) //lower-left face
-			{
-				double[] cellPos3 = cellToWorld(x,y+1);
-				normalsToSum.add(getTriNormal(new double[][]{{cellPos1[0], cellPos1[1], gridData.height[y][x-1]*unitsPerMeter},
-														     {cellPos2[0], cellPos2[1], gridData.height[y][x]*unitsPerMeter},
-														     {cellPos3[0], cellPos3[1], gridData.height[y+1][x]*unitsPerMeter}}));
-			}
-			if(y > 0) //upper-left faces
-			{
-				double[] cellPos3 = cellToWorld(x,y-1);
-				double[] cellPos4 = cellToWorld(x-1,y-1);
-				normalsToSum.add(getTriNormal(new double[][]{{cellPos2[0], cellPos2[1], gridData.height[y][x]*unitsPerMeter},
-														     {cellPos1[0], cellPos1[1], gridData.height[y][x-1]*unitsPerMeter},
-														     {cellPos4[0], cellPos4[1], gridData.height[y-1][x-1]*unitsPerMeter}}));
-				normalsToSum.add(getTriNormal(new double[][]{{cellPos4[0], cellPos4[1], gridData.height[y-1][x-1]*unitsPerMeter},
-														     {cellPos3[0], cellPos3[1], gridData.height[y-1][x]*unitsPerMeter},
-														     {cellPos2[0], cellPos2[1], gridData.height[y][x]*unitsPerMeter}}));
-			}
-		}
-		if(x < gridData.numColumns-1)
-		{
-			double[] cellPos1 = cellToWorld(x,y);
-			double[] cellPos2 = cellToWorld(x+1,y);
-			if(y < gridData.numRows-1) //lower-right faces
-			{
-				double[] cellPos3 = cellToWorld(x,y+1);
-				double[] cellPos4 = cellToWorld(x+1,y+1);
-				normalsToSum.add(getTriNormal(new double[][]{{cellPos1[0], cellPos1[1], gridData.height[y][x]*unitsPerMeter},
-														     {cellPos4[0], cellPos4[1], gridData.height[y+1][x+1]*unitsPerMeter},
-														     {cellPos3[0], cellPos3[1], gridData.height[y+1][x]*unitsPerMeter}}));
-				normalsToSum.add(getTriNormal(new double[][]{{cellPos1[0], cellPos1[1], gridData.height[y][x]*unitsPerMeter},
-														     {cellPos2[0], cellPos2[1], gridData.height[y][x+1]*unitsPerMeter},
-														     {cellPos4[0], cellPos4[1], gridData.height[y+1][x+1]*unitsPerMeter}}));
-			}
-			if(y > 0) //upper-right face
-			{
-				double[] cellPos3 = cellToWorld(x,y-1);
-				normalsToSum.add(getTriNormal(new double[][]{{cellPos1[0], cellPos1[1], gridData.height[y][x]*unitsPerMeter},
-														     {cellPos3[0], cellPos3[1], gridData.height[y-1][x]*unitsPerMeter},
-														     {cellPos2[0], cellPos2[1], gridData.height[y][x+1]*unitsPerMeter}}));
-			}
-		}
-		
-		//Sum and normalize to get the result.
-		double[] result = new double[3];
-		for(int i = 0; i < 3; i++) result[i] = 0;
-		for(double[] n : normalsToSum)
-		{
-			result[0] += n[0];
-			result[1] += n[1];
-			result[2] += n[2];
-		}
-		double mag = magnitude(result);
-		return vectorMultScalar(result,1./mag);
-	}
-	
-	/**
-	 * getTriNormal calculates the normal for a face.  Points should be specified in clockwise order.
-	 * @param points the points to calculate the normal for
-	 * @return normalized normal for the face
-	 */
-	private double[] getTriNormal(double[][] points)
-	{
-		if(points.length != 3 || points[0].length != 3) return null;
-		double[] result =  crossProduct(new double[]{points[2][0]-points[0][0], points[2][1]-points[0][1], points[2][2]-points[0][2]},
-										  new double[]{points[1][0]-points[0][0], points[1][1]-points[0][1], points[1][2]-points[0][2]});
-		double mag = magnitude(result);
-		return vectorMultScalar(result, 1./mag);
+		terrainRenderer.draw(gl2, true, false);
 	}
 	
 	/**
@@ -1057,10 +1143,10 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 		double fractionalXDist = cellScalePos[0]-upperLeftX;
 		double fractionalYDist = cellScalePos[1]-upperLeftY;
 
-		double[] ul = new double[]{upperLeftX, upperLeftY, gridData.height[upperLeftY][upperLeftX]};
-		double[] ur = new double[]{upperLeftX+1, upperLeftY, gridData.height[upperLeftY][upperLeftX+1]};
-		double[] ll = new double[]{upperLeftX, upperLeftY+1, gridData.height[upperLeftY+1][upperLeftX]};
-		double[] lr = new double[]{upperLeftX+1, upperLeftY+1, gridData.height[upperLeftY+1][upperLeftX+1]};
+		double[] ul = new double[]{upperLeftX, upperLeftY, gridData.height.get(upperLeftX, upperLeftY)};
+		double[] ur = new double[]{upperLeftX+1, upperLeftY, gridData.height.get(upperLeftX+1, upperLeftY)};
+		double[] ll = new double[]{upperLeftX, upperLeftY+1, gridData.height.get(upperLeftX, upperLeftY+1)};
+		double[] lr = new double[]{upperLeftX+1, upperLeftY+1, gridData.height.get(upperLeftX+1, upperLeftY+1)};
 
 		double finalElevation = 0;
 		
@@ -1323,10 +1409,9 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 		//that they've been generated.
 		if(!listNumsGenerated)
 		{
-	        meshList = gl2.glGenLists(2);
-	        markerList = meshList+1;
+	        markerList = gl2.glGenLists(1);
 	        listNumsGenerated = true;
-	        assert(meshList == 0); //glGenLists only returns 0 because of an error.
+	        assert(markerList != 0); //glGenLists only returns 0 because of an error.
 		}
 		
 		//Set up the light for the scene.
@@ -1367,11 +1452,13 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 	}
 
 	/**
-	 * dispose is called when the context is closed. For now, nothing
-	 * needs to be cleaned up.
+	 * dispose is called when the context is closed, and frees the terrain's buffers.
 	 */
 	@Override
 	public void dispose(GLAutoDrawable glautodrawable) {
+		gl2 = glautodrawable.getGL().getGL2();
+		terrainRenderer.dispose(gl2);
+		meshGenerated = false;
 	}
 
 	/**
@@ -1382,8 +1469,27 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 	 */
 	@Override
 	public void display(GLAutoDrawable glautodrawable) {
+		//Swap in a newly loaded dataset, if one is waiting.
+		GridFloatReader newData = pendingData.getAndSet(null);
+		if(newData != null)
+		{
+			setGridData(newData);
+			failedCenter = null;
+		}
+		//Swap in a recentered window, unless another dataset has replaced its mosaic meanwhile.
+		GridFloatReader newWindow = pendingWindow.getAndSet(null);
+		if(newWindow != null)
+		{
+			if(gridData != null && gridData.mosaic == newWindow.mosaic)
+			{
+				setGridData(newWindow);
+				failedCenter = null;
+			}
+			recenterPending = false;
+		}
+		
 		//Only redraw when there's a loaded file.
-		if(!currentDatafile.equals(""))
+		if(gridData != null)
 		{
 			//Get our context
 			gl2 = glautodrawable.getGL().getGL2();
@@ -1399,6 +1505,8 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 			
 			//Camera Setup
 			updateCameraState(updateTime);
+			//Follow the camera across a tile directory.
+			recenterMosaic();
 			//Update directional light for current camera orientation and time of day.
 			updateLightPosition(updateTime);
 			//Update projectile states and their lights.
@@ -1413,8 +1521,8 @@ public class SceneWalkthrough extends JFrame implements GLEventListener, MouseLi
 			//Determine if the terrain should be drawn as wireframe.
 			if(showWireframe)
 				gl2.glPolygonMode( GL2.GL_FRONT_AND_BACK, GL2.GL_LINE );
-			//Call the display lists.
-			gl2.glCallList(meshList);
+			//Draw the terrain.
+			drawTerrain();
 			//Return the renderer to normal.
 			if(showWireframe)
 				gl2.glPolygonMode( GL2.GL_FRONT_AND_BACK, GL2.GL_FILL );
@@ -0,0 +1,212 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * SpanIndex indexes the blocks of a height grid by the span of elevations from their lowest to
+ * their highest corner, so that the blocks a contour passes through can be found without
+ * testing every block. Each block covers BLOCK_CELLS X BLOCK_CELLS cells, and so the corner
+ * points from its first row and column to the first row and column of the next block. The
+ * elevation range is divided into buckets about as wide as a typical block's span, and each
+ * block is listed in every bucket its span overlaps; a contour level need only look through
+ * the blocks listed in its own bucket. Empty corners are ignored, and blocks whose corners are
+ * all empty are left out. The index does not copy the grid, and must be rebuilt if it changes;
+ * it keeps a reference to the grid it was built from, so that users can check they match.
+ */
+public class SpanIndex
+{
+	//Cells per side of each block.
+	public static final int BLOCK_CELLS = 8;
+	//The most buckets the elevation range is divided into.
+	private static final int MAX_BUCKETS = 1<<16;
+	//The number of block rows below which a band is built serially rather than split.
+	private static final int ROWS_PER_BAND = 16;
+
+	//The grid the index was built from.
+	public final HeightGrid grid;
+	public final int numBlockColumns, numBlockRows;
+	//The extremes of block (x, y) are at index y*numBlockColumns+x. An empty block has a
+	//minimum of +Infinity and a maximum of -Infinity.
+	private final float[] minimums, maximums;
+	private final boolean[] complete;
+	private double firstBucketStart, bucketWidth;
+	//The blocks in bucket b are blocks[bucketStarts[b]] to blocks[bucketStarts[b+1]-1].
+	private int[] bucketStarts, blocks;
+
+	private SpanIndex(HeightGrid grid)
+	{
+		this.grid = grid;
+		//Blocks cover cells, which lie between the grid's points.
+		numBlockColumns = Math.max(1, (grid.numColumns-1+BLOCK_CELLS-1)/BLOCK_CELLS);
+		numBlockRows = Math.max(1, (grid.numRows-1+BLOCK_CELLS-1)/BLOCK_CELLS);
+		minimums = new float[numBlockColumns*numBlockRows];
+		maximums = new float[numBlockColumns*numBlockRows];
+		complete = new boolean[numBlockColumns*numBlockRows];
+	}
+
+	/**
+	 * Builds the index for a grid. The blocks' spans are found in bands of rows in parallel on
+	 * the common fork-join pool, and then sorted into buckets.
+	 * @param grid - The grid to index.
+	 * @param noData - The value marking empty cells.
+	 * @return The index of the grid's blocks.
+	 */
+	public static SpanIndex build(HeightGrid grid, float noData)
+	{
+		SpanIndex index = new SpanIndex(grid);
+		ForkJoinPool.commonPool().invoke(new BuildTask(index, grid, noData, 0, index.numBlockRows));
+		index.fillBuckets();
+		return index;
+	}
+
+	/**
+	 * Finds the extremes of a band of rows of blocks.
+	 * @param grid - The grid to index.
+	 * @param noData - The value marking empty cells.
+	 * @param firstRow - The first row of blocks in the band.
+	 * @param endRow - The row of blocks after the end of the band.
+	 */
+	private void buildRows(HeightGrid grid, float noData, int firstRow, int endRow)
+	{
+		for (int blockY = firstRow; blockY < endRow; blockY++)
+		{
+			int y0 = blockY*BLOCK_CELLS, y1 = Math.min(y0+BLOCK_CELLS, grid.numRows-1);
+			for (int blockX = 0; blockX < numBlockColumns; blockX++)
+			{
+				int x0 = blockX*BLOCK_CELLS, x1 = Math.min(x0+BLOCK_CELLS, grid.numColumns-1);
+				float low = Float.POSITIVE_INFINITY, high = Float.NEGATIVE_INFINITY;
+				int numEmpty = 0;
+				for (int y = y0; y <= y1; y++)
+				{
+					for (int x = x0; x <= x1; x++)
+					{
+						float v = grid.get(x, y);
+						if(v == noData) { numEmpty++; continue; }
+						if(v < low) low = v;
+						if(v > high) high = v;
+					}
+				}
+				int block = blockY*numBlockColumns+blockX;
+				minimums[block] = low;
+				maximums[block] = high;
+				complete[block] = numEmpty == 0;
+			}
+		}
+	}
+
+	/**
+	 * Sorts the blocks into buckets, by counting the blocks in each bucket and then placing them.
+	 */
+	private void fillBuckets()
+	{
+		double low = Double.POSITIVE_INFINITY, high = Double.NEGATIVE_INFINITY, spanSum = 0;
+		int numSpans = 0;
+		for (int block = 0; block < minimums.length; block++)
+		{
+			if(minimums[block] > maximums[block]) continue;
+			low = Math.min(low, minimums[block]);
+			high = Math.max(high, maximums[block]);
+			spanSum += maximums[block]-minimums[block];
+			numSpans++;
+		}
+		if(numSpans == 0)
+		{
+			firstBucketStart = 0;
+			bucketWidth = 1;
+			bucketStarts = new int[2];
+			blocks = new int[0];
+			return;
+		}
+		firstBucketStart = low;
+		bucketWidth = Math.max(spanSum/numSpans, (high-low)/MAX_BUCKETS);
+		if(bucketWidth <= 0)
+			bucketWidth = 1;
+		int numBuckets = (int)((high-low)/bucketWidth)+1;
+
+		bucketStarts = new int[numBuckets+1];
+		for (int block = 0; block < minimums.length; block++)
+			if(minimums[block] <= maximums[block])
+				for (int b = getBucket(minimums[block]); b <= getBucket(maximums[block]); b++)
+					bucketStarts[b+1]++;
+		for (int b = 0; b < numBuckets; b++)
+			bucketStarts[b+1] += bucketStarts[b];
+		blocks = new int[bucketStarts[numBuckets]];
+		int[] next = bucketStarts.clone();
+		for (int block = 0; block < minimums.length; block++)
+			if(minimums[block] <= maximums[block])
+				for (int b = getBucket(minimums[block]); b <= getBucket(maximums[block]); b++)
+					blocks[next[b]++] = block;
+	}
+
+	/**
+	 * @return The bucket an elevation falls in, clamped to the range of buckets.
+	 */
+	private int getBucket(double value)
+	{
+		int bucket = (int)((value-firstBucketStart)/bucketWidth);
+		return Math.max(0, Math.min(bucketStarts.length-2, bucket));
+	}
+
+	/**
+	 * Finds the blocks that a contour passes through: those with a corner above its elevation
+	 * and a corner at or below it.
+	 * @param value - The elevation of the contour.
+	 * @return The numbers of the blocks found (y*numBlockColumns+x), in increasing order.
+	 */
+	public int[] findBlocks(double value)
+	{
+		int bucket = getBucket(value), count = 0;
+		int[] result = new int[bucketStarts[bucket+1]-bucketStarts[bucket]];
+		for (int i = bucketStarts[bucket]; i < bucketStarts[bucket+1]; i++)
+		{
+			int block = blocks[i];
+			if(minimums[block] <= value && maximums[block] > value)
+				result[count++] = block;
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * @param block - The number of a block, y*numBlockColumns+x.
+	 * @return true if none of the block's corners are empty.
+	 */
+	public boolean isComplete(int block)
+	{
+		return complete[block];
+	}
+
+	/**
+	 * BuildTask splits the rows of blocks into bands, halving them until they are small enough
+	 * to build directly.
+	 */
+	private static class BuildTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final SpanIndex index;
+		private final HeightGrid grid;
+		private final float noData;
+		private final int firstRow, endRow;
+
+		BuildTask(SpanIndex index, HeightGrid grid, float noData, int firstRow, int endRow)
+		{
+			this.index = index;
+			this.grid = grid;
+			this.noData = noData;
+			this.firstRow = firstRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (endRow-firstRow <= ROWS_PER_BAND)
+			{
+				index.buildRows(grid, noData, firstRow, endRow);
+				return;
+			}
+			int midRow = (firstRow+endRow) >>> 1;
+			invokeAll(new BuildTask(index, grid, noData, firstRow, midRow),
+					  new BuildTask(index, grid, noData, midRow, endRow));
+		}
+	}
+}
@@ -0,0 +1,111 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * StreamingContourExtractor is a pipeline stage that traces contours through a streamed dataset
+ * by marching squares, so that a dataset too large for the heap can be contoured at full
+ * resolution. Each row of cells lies between two rows of points, so only the last row of the
+ * previous block is kept, and the segments are the same as ContourExtractor finds in the loaded
+ * grid, in another order. The contours of each block are traced in parallel on the common
+ * fork-join pool, each task adding to its own contours of the set.
+ */
+public class StreamingContourExtractor implements RowBlockConsumer
+{
+	//The number of contours below which a block is traced serially rather than split.
+	private static final int LEVELS_PER_TASK = 1;
+
+	private final ContourSet contours;
+	private float noData;
+	private int numColumns;
+	private float[] previousRow;
+	private boolean hasPreviousRow;
+
+	/**
+	 * @param levels - The elevation of each contour.
+	 */
+	public StreamingContourExtractor(double[] levels)
+	{
+		contours = new ContourSet(levels);
+	}
+
+	@Override
+	public void start(GridFloatReader header)
+	{
+		noData = header.noData;
+		numColumns = header.numColumns;
+		previousRow = new float[numColumns];
+		hasPreviousRow = false;
+	}
+
+	@Override
+	public void accept(float[] block, int firstRow, int numRows)
+	{
+		if(contours.levels.length > 0)
+			ForkJoinPool.commonPool().invoke(new LevelTask(block, firstRow, numRows, 0, contours.levels.length));
+		System.arraycopy(block, (numRows-1)*numColumns, previousRow, 0, numColumns);
+		hasPreviousRow = true;
+	}
+
+	@Override
+	public void finish()
+	{
+		previousRow = null;
+	}
+
+	/**
+	 * Traces a range of contours through the cells of a block, and those between the block and
+	 * the row before it.
+	 */
+	private void extractLevels(float[] block, int firstRow, int numRows, int firstLevel, int endLevel)
+	{
+		for (int level = firstLevel; level < endLevel; level++)
+		{
+			if(hasPreviousRow)
+				ContourExtractor.extractRow(previousRow, 0, block, 0, numColumns, firstRow-1, noData, level, contours);
+			for (int i = 0; i < numRows-1; i++)
+				ContourExtractor.extractRow(block, i*numColumns, block, (i+1)*numColumns, numColumns, firstRow+i, noData, level, contours);
+		}
+	}
+
+	/**
+	 * @return The contours' segments, in cell coordinates of the streamed window, once the stream
+	 *         has finished.
+	 */
+	public ContourSet getResult()
+	{
+		return contours;
+	}
+
+	/**
+	 * LevelTask splits a range of contours in half until it is small enough to trace directly.
+	 */
+	private class LevelTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final float[] block;
+		private final int firstRow, numRows;
+		private final int firstLevel, endLevel;
+
+		LevelTask(float[] block, int firstRow, int numRows, int firstLevel, int endLevel)
+		{
+			this.block = block;
+			this.firstRow = firstRow;
+			this.numRows = numRows;
+			this.firstLevel = firstLevel;
+			this.endLevel = endLevel;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (endLevel-firstLevel <= LEVELS_PER_TASK)
+			{
+				extractLevels(block, firstRow, numRows, firstLevel, endLevel);
+				return;
+			}
+			int midLevel = (firstLevel+endLevel) >>> 1;
+			invokeAll(new LevelTask(block, firstRow, numRows, firstLevel, midLevel),
+					  new LevelTask(block, firstRow, numRows, midLevel, endLevel));
+		}
+	}
+}
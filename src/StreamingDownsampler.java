@@ -0,0 +1,82 @@
+/**
+ * StreamingDownsampler is a pipeline stage that reduces a streamed dataset by averaging each
+ * factor X factor block of cells into one. Empty (noData) cells are left out of each average,
+ * and a block with no data at all becomes empty. Only the reduced grid and one row of partial
+ * sums are held in memory, however large the input is.
+ */
+public class StreamingDownsampler implements RowBlockConsumer
+{
+	private final int factor;
+	private float noData;
+	private int inColumns, inRows;
+	private HeightGrid result;
+	private double[] rowSums;
+	private int[] rowCounts;
+
+	/**
+	 * @param factor - The number of cells along each axis to combine into one.
+	 */
+	public StreamingDownsampler(int factor)
+	{
+		if(factor < 1)
+			throw new IllegalArgumentException("Downsampling factor must be at least 1, not "+factor+".");
+		this.factor = factor;
+	}
+
+	@Override
+	public void start(GridFloatReader header)
+	{
+		noData = header.noData;
+		inColumns = header.numColumns;
+		inRows = header.numRows;
+		int outColumns = (inColumns+factor-1)/factor;
+		result = new HeightGrid(outColumns, (inRows+factor-1)/factor);
+		rowSums = new double[outColumns];
+		rowCounts = new int[outColumns];
+	}
+
+	@Override
+	public void accept(float[] block, int firstRow, int numRows)
+	{
+		for (int i = 0; i < numRows; i++)
+		{
+			int row = firstRow+i;
+			int offset = i*inColumns;
+			for (int x = 0; x < inColumns; x++)
+			{
+				float value = block[offset+x];
+				if (value != noData)
+				{
+					rowSums[x/factor] += value;
+					rowCounts[x/factor]++;
+				}
+			}
+			//Emit an output row once its last input row has been seen.
+			if ((row+1)%factor == 0 || row == inRows-1)
+			{
+				int outRow = row/factor;
+				for (int x = 0; x < rowSums.length; x++)
+				{
+					result.set(x, outRow, rowCounts[x] > 0 ? (float)(rowSums[x]/rowCounts[x]) : noData);
+					rowSums[x] = 0;
+					rowCounts[x] = 0;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void finish()
+	{
+		rowSums = null;
+		rowCounts = null;
+	}
+
+	/**
+	 * @return The reduced grid, once the stream has finished.
+	 */
+	public HeightGrid getResult()
+	{
+		return result;
+	}
+}
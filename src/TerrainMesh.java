@@ -0,0 +1,169 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * TerrainMesh holds the vertices of a height grid, ready to be uploaded to OpenGL as a vertex
+ * buffer. It makes no GL calls itself.
+ *
+ * There is one vertex per grid point, at index y*numColumns+x, interleaved in a direct float
+ * buffer as FLOATS_PER_VERTEX floats: the position (x, y, z), the normal (x, y, z), the image
+ * texture coordinates (s, t), and the elevation. Columns run east along the x axis, rows south
+ * down the y axis, and heights up the z axis. Normals are found from the differences between
+ * each point's neighbours, leaving out empty points. The image coordinates span the grid from
+ * (0, 0) at the southwest corner to (1, 1) at the northeast. Empty points get a vertex too, to
+ * keep the layout regular, but no triangle uses them.
+ *
+ * The vertices are drawn with GridIndices: those of a complete grid, which depend only on its
+ * size, or, if it has empty cells, those built from its mask.
+ */
+public class TerrainMesh
+{
+	//The layout of each vertex, in floats.
+	public static final int FLOATS_PER_VERTEX = 9;
+	public static final int POSITION_OFFSET = 0, NORMAL_OFFSET = 3, TEXCOORD_OFFSET = 6, ELEVATION_OFFSET = 8;
+	//The most vertices a mesh can hold, as a direct buffer holds at most 2GB.
+	public static final long MAX_VERTICES = Integer.MAX_VALUE/(4*FLOATS_PER_VERTEX);
+	//The number of rows below which a band is built serially rather than split.
+	private static final int ROWS_PER_BAND = 64;
+
+	public final int numColumns, numRows;
+	public final FloatBuffer vertices;
+	public final ValidityMask mask;
+
+	private TerrainMesh(int numColumns, int numRows, FloatBuffer vertices, ValidityMask mask)
+	{
+		this.numColumns = numColumns;
+		this.numRows = numRows;
+		this.vertices = vertices;
+		this.mask = mask;
+	}
+
+	/**
+	 * Builds the mesh of a grid. Bands of rows of vertices are built in parallel on the common
+	 * fork-join pool.
+	 * @param grid - The grid (or overview level) to mesh.
+	 * @param mask - The grid's non-empty cells.
+	 * @param left - The x coordinate of the first column.
+	 * @param top - The y coordinate of the first (northernmost) row.
+	 * @param stepX - The distance between columns.
+	 * @param stepY - The distance between rows.
+	 * @param heightScale - The z units per unit of elevation.
+	 * @param baseHeight - The elevation placed at z = 0.
+	 * @return The mesh.
+	 * @throws IllegalArgumentException If the grid has more than MAX_VERTICES points; mesh an
+	 *                                  overview level instead.
+	 */
+	public static TerrainMesh build(HeightGrid grid, ValidityMask mask, double left, double top,
+									double stepX, double stepY, double heightScale, double baseHeight)
+	{
+		long numVertices = (long)grid.numColumns*grid.numRows;
+		if(numVertices > MAX_VERTICES)
+			throw new IllegalArgumentException("A mesh of "+grid.numColumns+" X "+grid.numRows+" points is larger than the "
+					+MAX_VERTICES+" vertices a mesh can hold; mesh a reduced level instead.");
+		FloatBuffer vertices = ByteBuffer.allocateDirect((int)(4L*FLOATS_PER_VERTEX*numVertices))
+										 .order(ByteOrder.nativeOrder()).asFloatBuffer();
+		ForkJoinPool.commonPool().invoke(new BuildTask(grid, mask, vertices,
+				new double[]{left, top, stepX, stepY, heightScale, baseHeight}, 0, grid.numRows));
+
+		return new TerrainMesh(grid.numColumns, grid.numRows, vertices, mask);
+	}
+
+	/**
+	 * Fills in the vertices of a band of rows.
+	 * @param grid - The grid to mesh.
+	 * @param mask - The grid's non-empty cells.
+	 * @param vertices - The buffer to fill, which is not repositioned.
+	 * @param placement - The left, top, stepX, stepY, heightScale, and baseHeight of build.
+	 * @param firstRow - The first row of the band.
+	 * @param endRow - The row after the end of the band.
+	 */
+	private static void buildRows(HeightGrid grid, ValidityMask mask, FloatBuffer vertices, double[] placement,
+								  int firstRow, int endRow)
+	{
+		double left = placement[0], top = placement[1], stepX = placement[2], stepY = placement[3];
+		double heightScale = placement[4], baseHeight = placement[5];
+		int columns = grid.numColumns, rows = grid.numRows;
+		float[] row = new float[FLOATS_PER_VERTEX*columns];
+		FloatBuffer band = vertices.duplicate();
+		band.position(FLOATS_PER_VERTEX*firstRow*columns);
+		for (int y = firstRow; y < endRow; y++)
+		{
+			float t = rows > 1 ? (float)(rows-1-y)/(rows-1) : 0;
+			for (int x = 0, i = 0; x < columns; x++, i += FLOATS_PER_VERTEX)
+			{
+				boolean valid = mask.isValid(x, y);
+				float elevation = grid.get(x, y);
+				row[i+POSITION_OFFSET] = (float)(left + x*stepX);
+				row[i+POSITION_OFFSET+1] = (float)(top - y*stepY);
+				row[i+POSITION_OFFSET+2] = valid ? (float)(heightScale*(elevation-baseHeight)) : 0;
+
+				//The slopes across the point, from its nearest valid neighbours on each side.
+				int x0 = x > 0 && mask.isValid(x-1, y) ? x-1 : x, x1 = x < columns-1 && mask.isValid(x+1, y) ? x+1 : x;
+				int y0 = y > 0 && mask.isValid(x, y-1) ? y-1 : y, y1 = y < rows-1 && mask.isValid(x, y+1) ? y+1 : y;
+				double slopeX = 0, slopeY = 0;
+				if(valid && x1 > x0)
+					slopeX = heightScale*(grid.get(x1, y)-grid.get(x0, y))/((x1-x0)*stepX);
+				//Rows run south, against the y axis.
+				if(valid && y1 > y0)
+					slopeY = -heightScale*(grid.get(x, y1)-grid.get(x, y0))/((y1-y0)*stepY);
+				double length = Math.sqrt(slopeX*slopeX + slopeY*slopeY + 1);
+				row[i+NORMAL_OFFSET] = (float)(-slopeX/length);
+				row[i+NORMAL_OFFSET+1] = (float)(-slopeY/length);
+				row[i+NORMAL_OFFSET+2] = (float)(1/length);
+
+				row[i+TEXCOORD_OFFSET] = columns > 1 ? (float)x/(columns-1) : 0;
+				row[i+TEXCOORD_OFFSET+1] = t;
+				row[i+ELEVATION_OFFSET] = valid ? elevation : 0;
+			}
+			band.put(row);
+		}
+	}
+
+	/**
+	 * @return The size of the vertex buffer, in bytes.
+	 */
+	public long getVertexBytes()
+	{
+		return 4L*vertices.capacity();
+	}
+
+	/**
+	 * BuildTask splits the rows of a mesh into bands, halving them until they are small enough
+	 * to build directly.
+	 */
+	private static class BuildTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final HeightGrid grid;
+		private final ValidityMask mask;
+		private final FloatBuffer vertices;
+		private final double[] placement;
+		private final int firstRow, endRow;
+
+		BuildTask(HeightGrid grid, ValidityMask mask, FloatBuffer vertices, double[] placement, int firstRow, int endRow)
+		{
+			this.grid = grid;
+			this.mask = mask;
+			this.vertices = vertices;
+			this.placement = placement;
+			this.firstRow = firstRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (endRow-firstRow <= ROWS_PER_BAND)
+			{
+				buildRows(grid, mask, vertices, placement, firstRow, endRow);
+				return;
+			}
+			int midRow = (firstRow+endRow) >>> 1;
+			invokeAll(new BuildTask(grid, mask, vertices, placement, firstRow, midRow),
+					  new BuildTask(grid, mask, vertices, placement, midRow, endRow));
+		}
+	}
+}
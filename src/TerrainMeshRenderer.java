@@ -0,0 +1,101 @@
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+
+/**
+ * TerrainMeshRenderer draws a TerrainMesh from vertex buffer objects. The mesh's interleaved
+ * vertices are uploaded once, and each frame draws them from the copy held by OpenGL as a single
+ * triangle strip, rather than replaying a display list of one call per vertex. Complete meshes
+ * share index buffers through a GridIndexCache, so a new dataset of a size seen before uploads
+ * only its vertices; meshes with empty cells get indices of their own. All methods must be
+ * called on the GL thread.
+ */
+public class TerrainMeshRenderer
+{
+	private static final int STRIDE = 4*TerrainMesh.FLOATS_PER_VERTEX;
+	//The total size of the cached index buffers of complete meshes.
+	private static final long INDEX_CACHE_BYTES = 64L << 20;
+
+	//The vertex buffer name, or 0 before the first upload.
+	private final int[] buffers = new int[1];
+	private final GridIndexCache indexCache = new GridIndexCache(INDEX_CACHE_BYTES);
+	//The indices of the uploaded mesh, and whether they belong to the cache rather than to it alone.
+	private IndexBuffer indices;
+	private boolean sharedIndices;
+
+	/**
+	 * Uploads a mesh, replacing any uploaded before, and reports its size and upload time.
+	 * @param gl - The GL context.
+	 * @param mesh - The mesh to upload.
+	 */
+	public void upload(GL2 gl, TerrainMesh mesh)
+	{
+		long startTime = System.nanoTime();
+		if(buffers[0] == 0)
+			gl.glGenBuffers(1, buffers, 0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, buffers[0]);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, mesh.getVertexBytes(), mesh.vertices, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+		if(indices != null && !sharedIndices)
+			indices.delete(gl);
+		sharedIndices = mesh.mask.isAllValid();
+		long cacheMisses = indexCache.getMisses();
+		if(sharedIndices)
+			indices = indexCache.get(gl, mesh.numColumns, mesh.numRows, 1);
+		else
+			indices = IndexBuffer.upload(gl, GridIndices.build(mesh.mask, IndexBuffer.isRestartSupported(gl)));
+
+		String source = !sharedIndices ? "built for its mask" : indexCache.getMisses() > cacheMisses ? "uploaded" : "reused";
+		System.out.println(String.format("Uploaded a mesh of %d vertices (%.1f MB) and %d indices (%.1f MB, %s) in %d ms.",
+				mesh.numColumns*mesh.numRows, mesh.getVertexBytes()/1048576., indices.numIndices,
+				indices.getBytes()/1048576., source, (System.nanoTime()-startTime)/1000000));
+	}
+
+	/**
+	 * Draws the uploaded mesh, if there is one.
+	 * @param gl - The GL context.
+	 * @param normals - Whether to pass the vertices' normals, for lighting.
+	 * @param elevationTexCoords - Whether to pass each vertex's elevation as a one-dimensional
+	 *                             texture coordinate, rather than its image coordinates.
+	 */
+	public void draw(GL2 gl, boolean normals, boolean elevationTexCoords)
+	{
+		if(buffers[0] == 0) return;
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, buffers[0]);
+		gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+		gl.glVertexPointer(3, GL.GL_FLOAT, STRIDE, 4L*TerrainMesh.POSITION_OFFSET);
+		if(normals)
+		{
+			gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+			gl.glNormalPointer(GL.GL_FLOAT, STRIDE, 4L*TerrainMesh.NORMAL_OFFSET);
+		}
+		gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+		if(elevationTexCoords)
+			gl.glTexCoordPointer(1, GL.GL_FLOAT, STRIDE, 4L*TerrainMesh.ELEVATION_OFFSET);
+		else
+			gl.glTexCoordPointer(2, GL.GL_FLOAT, STRIDE, 4L*TerrainMesh.TEXCOORD_OFFSET);
+
+		indices.draw(gl);
+
+		gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+		if(normals)
+			gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+		gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Deletes the uploaded buffers, including the cached indices.
+	 * @param gl - The GL context.
+	 */
+	public void dispose(GL2 gl)
+	{
+		if(buffers[0] != 0)
+			gl.glDeleteBuffers(1, buffers, 0);
+		buffers[0] = 0;
+		if(indices != null && !sharedIndices)
+			indices.delete(gl);
+		indices = null;
+		indexCache.dispose(gl);
+	}
+}
@@ -25,7 +25,9 @@ import javax.swing.JColorChooser;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JSpinner;
+import javax.swing.SpinnerListModel;
 import javax.swing.SpinnerNumberModel;
 import javax.swing.UIManager;
 import javax.swing.event.ChangeEvent;
@@ -47,9 +49,17 @@ import java.awt.event.MouseWheelListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class TerrainVis extends Frame implements GLEventListener, MouseListener, MouseMotionListener, MouseWheelListener
 {
@@ -74,14 +84,15 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 	
 	//UI Initial Constants
 	private static final int DEFAULT_CONTOURS = 10;
-	private static final int DEFAULT_RES_FACTOR = 1;
+	private static final int DEFAULT_RES_LEVEL = 0;
 	private static final float[] BACKGROUND_COLOR = new float[]{0.04f, 0.04f, 0.04f};
 	private static final double[] DEFAULT_LOW_COLOR = new double[]{0.0, 0.0, 1.0};
 	private static final double[] DEFAULT_HIGH_COLOR = new double[]{1.0, 0.0, 0.0};
 	private static final double[] DEFAULT_MARKER_COLOR = new double[]{1.0, 1.0, 1.0};
 	private static final double[] CONTOUR_COLOR = new double[]{0.0, 0.0, 0.0};
 	private static final double CONTOUR_SPINNER_INCREMENT = 10.;
-	private static final int RES_SPINNER_INCREMENT = 1;
+	private static final double OUTLIER_FRACTION = 0.01; //The fraction of cells at each extreme left out of the color ramp and default contours.
+	private static final long CONTOUR_CACHE_BYTES = 64L << 20; //The size of the stitched contours kept for reuse.
 	private static final int DEF_MAX_ROWS_COLUMNS = 1000;
 	private static final boolean DEFAULT_SHOW_MARKER_VALUE = true;
 	private static final boolean DEFAULT_SHOW_CONTOURS_VALUE = true;
@@ -92,11 +103,14 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 	
 	//Grid Display Information
 	private static String currentDatafile;
-	private static int numCtrs, resFactor;
+	private static int numCtrs, resLevel, resFactor;
+	private static Downsampler.Filter resFilter = Downsampler.Filter.BOX;
 	private static double lowCtrVal, highCtrVal, stepSize;
-	private static double[] lowColor, highColor, colorDist, markerColor;
+	private static double[] lowColor, highColor, markerColor;
+	private static double lowColorHeight, highColorHeight;
 	private static boolean showMarker, showContours, showWireframe;
 	private static GridFloatReader gridData;
+	private static final AtomicReference<GridFloatReader> pendingData = new AtomicReference<GridFloatReader>();
 	private static double gridWidth, gridHeight, gridDepthScale,
 						  cellSizeX, cellSizeY, cellSizeRatio;
 	private static double yRotation;
@@ -106,7 +120,23 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 	private boolean listNumsGenerated = false;
 	private boolean contoursGenerated = false;
 	private boolean meshGenerated = false;
-	private int contourList, meshList;
+	private int contourList;
+	
+	//The mesh is drawn from vertex buffers, colored by a texture of the color ramp.
+	private final TerrainMeshRenderer meshRenderer = new TerrainMeshRenderer();
+	private final int[] rampTexture = new int[1];
+	private boolean rampGenerated = false;
+	
+	//Contours are extracted (and exported) on a worker thread, and compiled once the latest request is done.
+	private ExecutorService contourWorker;
+	private volatile int contourRequest;
+	private final AtomicReference<ContourResult> pendingContours = new AtomicReference<ContourResult>();
+	private final ContourCache contourCache = new ContourCache(CONTOUR_CACHE_BYTES);
+	private boolean contoursReady = false;
+	
+	//The reduced levels are rebuilt for another filter on the contour worker, and swapped in by display once done.
+	private Downsampler.Filter requestedFilter;
+	private final AtomicReference<GridFloatReader> pendingOverviews = new AtomicReference<GridFloatReader>();
 	
 	//OpenGL Display and Interaction Entities
 	private GL2 gl2;
@@ -132,20 +162,27 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 	//UI Components
 	private File appFilePath;
 	private JButton openFileButton;
+	private JButton cancelLoadButton;
+	private JProgressBar loadProgressBar;
+	private DatasetLoader loader;
 	private JButton changeColorsButton;
+	private JButton exportContoursButton;
 	private JSpinner numContoursSpinner;
 	private JSpinner lowContourSpinner;
 	private JSpinner highContourSpinner;
 	private JSpinner resFactorSpinner;
+	private JSpinner resFilterSpinner;
 	private SpinnerNumberModel numContoursSpinnerModel;
 	private SpinnerNumberModel lowContourSpinnerModel;
 	private SpinnerNumberModel highContourSpinnerModel;
-	private SpinnerNumberModel resFactorSpinnerModel;
+	private SpinnerListModel resFactorSpinnerModel;
+	private SpinnerListModel resFilterSpinnerModel;
 	private Dimension spinnerDimension;
 	private boolean spinnerShouldRedraw;
 	private JCheckBox markerCheckbox;
 	private JCheckBox contoursCheckbox;
 	private JCheckBox wireframeCheckbox;
+	private JCheckBox quantizeCheckbox;
 	
 	public TerrainVis()
 	{
@@ -189,21 +226,14 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 	    lowColor = DEFAULT_LOW_COLOR;
 	    highColor = DEFAULT_HIGH_COLOR;
 	    markerColor = DEFAULT_MARKER_COLOR;
-	    colorDist = new double[]{highColor[0] - lowColor[0],
-	    						 highColor[1] - lowColor[1],
-	    						 highColor[2] - lowColor[2]};
     	showMarker = DEFAULT_SHOW_MARKER_VALUE;
     	showContours = DEFAULT_SHOW_CONTOURS_VALUE;
     	showWireframe = DEFAULT_SHOW_WIREFRAME_VALUE;
     	numCtrs = DEFAULT_CONTOURS;
-    	resFactor = DEFAULT_RES_FACTOR;
+    	resLevel = DEFAULT_RES_LEVEL;
+    	resFactor = 1 << resLevel;
     	stepSize = 0;
 	    
-	    //Get the distance between each color value.
-	    colorDist = new double[]{highColor[0] - lowColor[0],
-	    						 highColor[1] - lowColor[1],
-	    						 highColor[2] - lowColor[2]};
-	    
         buildGUI();
         setSize(DEFAULT_WIDTH, DEFAULT_HEIGHT);
         setVisible( true );
@@ -246,6 +276,24 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 		});
 		bottomRow.add(openFileButton);
 		
+		//Applies to files opened afterwards.
+		quantizeCheckbox = new JCheckBox("16-bit Heights", false);
+		bottomRow.add(quantizeCheckbox);
+		
+		loadProgressBar = new JProgressBar(0, 100);
+		loadProgressBar.setVisible(false);
+		bottomRow.add(loadProgressBar);
+		
+		cancelLoadButton = new JButton("Cancel");
+		cancelLoadButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				if(loader != null) loader.cancel(true);
+			}
+		});
+		cancelLoadButton.setEnabled(false);
+		bottomRow.add(cancelLoadButton);
+		
 		changeColorsButton = new JButton("Change Colors");
 		changeColorsButton.addActionListener(new ActionListener() {
 			@Override
@@ -255,6 +303,16 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 		});
 		changeColorsButton.setEnabled(false);
 		bottomRow.add(changeColorsButton);
+		
+		exportContoursButton = new JButton("Export Contours");
+		exportContoursButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				exportContours();
+			}
+		});
+		exportContoursButton.setEnabled(false);
+		bottomRow.add(exportContoursButton);
 
 		spinnerDimension = new Dimension(150,20);
 		spinnerShouldRedraw = true;
@@ -304,12 +362,13 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 		topRow.add(highContourSpinner);
 		
 		JLabel resFactorLabel = new JLabel("Reduce Resolution By:");
-		resFactorSpinnerModel = new SpinnerNumberModel(1, 1, RES_SPINNER_INCREMENT, RES_SPINNER_INCREMENT);
+		resFactorSpinnerModel = new SpinnerListModel(getResFactors(0, 1));
 		resFactorSpinner = new JSpinner(resFactorSpinnerModel);
 		resFactorSpinner.addChangeListener(new ChangeListener() {
 			@Override
 			public void stateChanged(ChangeEvent arg0) {
 				resFactor = (Integer)resFactorSpinnerModel.getValue();
+				resLevel = Integer.numberOfTrailingZeros(resFactor);
 				handleResolutionSpinnerChange();
 			}
 		});
@@ -318,6 +377,21 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 		topRow.add(resFactorLabel);
 		topRow.add(resFactorSpinner);
 		
+		JLabel resFilterLabel = new JLabel("Taking The:");
+		resFilterSpinnerModel = new SpinnerListModel(Downsampler.Filter.values());
+		resFilterSpinner = new JSpinner(resFilterSpinnerModel);
+		resFilterSpinner.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent arg0) {
+				resFilter = (Downsampler.Filter)resFilterSpinnerModel.getValue();
+				handleResolutionSpinnerChange();
+			}
+		});
+		resFilterSpinner.setPreferredSize(spinnerDimension);
+		resFilterSpinner.setEnabled(false);
+		topRow.add(resFilterLabel);
+		topRow.add(resFilterSpinner);
+		
 		markerCheckbox = new JCheckBox("Show Peak Marker", DEFAULT_SHOW_MARKER_VALUE);
 		markerCheckbox.addActionListener(new ActionListener() {
 			@Override
@@ -350,8 +424,8 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 	}
 	
 	/**
-	 * loadNewFile prompts the user to choose a file, uses SparseGridFloatReader to read in the
-	 * file information, and processes it.
+	 * loadNewFile prompts the user to choose a file, and starts a DatasetLoader to read in the
+	 * file information in the background. Any load already in progress is cancelled.
 	 */
 	private void loadNewFile()
 	{
@@ -360,67 +434,114 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 		if(returnVal == JFileChooser.APPROVE_OPTION)
 		{
 			File newFile = openFileDialog.getSelectedFile();
-			String newDataFile = newFile.getPath();
-			int dotPosition = newDataFile.lastIndexOf('.');
-			if(dotPosition >= -1) newDataFile = newDataFile.substring(0,dotPosition);
+			String newDataFile = GridFloatReader.getPrefix(newFile.getPath());
 			
-			//If the same file is chosen, do nothing.
-			if(!newDataFile.equals(currentDatafile))
+			//If the same file is chosen, or is already loading, do nothing.
+			if(!newDataFile.equals(currentDatafile)
+					&& (loader == null || loader.isDone() || !newDataFile.equals(loader.getPrefix())))
 			{
-				currentDatafile = newDataFile;
-				gridData = new GridFloatReader(currentDatafile);
-				stepSize = getStepSize(numCtrs, gridData.minHeight, gridData.maxHeight);
-				
-			    //Determine how to display the gridFloat data.
-			    cellSizeRatio = gridData.cellSizeRatio;
-			    
-			    //Given non-square cells, determine the constraining dimension
-			    if(gridData.numRows*cellSizeRatio > gridData.numColumns)
-			    {
-			    	cellSizeY = GRID_SCALE/gridData.numRows;
-			    	cellSizeX = cellSizeY/cellSizeRatio;
-			    }
-			    else
-			    {
-			    	cellSizeX = GRID_SCALE/gridData.numColumns;
-			    	cellSizeY = cellSizeX*cellSizeRatio; 
-			    }
-			    gridWidth = gridData.numColumns*cellSizeX;
-			    gridHeight = gridData.numRows*cellSizeY;
-			    gridDepthScale = cellSizeX/gridData.cellSizeX;
-		    	
-			    //Set up UI spinners
-		    	spinnerShouldRedraw = false; //Don't redraw during setup.
-		        lowContourSpinnerModel.setMinimum(gridData.minHeight);
-		        lowContourSpinnerModel.setMaximum(gridData.maxHeight);
-		        lowContourSpinnerModel.setValue(Math.floor(gridData.minHeight)+CONTOUR_SPINNER_INCREMENT);
-		        highContourSpinnerModel.setMinimum(gridData.minHeight);
-		        highContourSpinnerModel.setMaximum(gridData.maxHeight);
-		        highContourSpinnerModel.setValue(Math.ceil(gridData.maxHeight)-CONTOUR_SPINNER_INCREMENT);
-		        resFactorSpinnerModel.setMaximum(Math.min(gridData.numColumns-1,gridData.numRows-1));
-		        resFactorSpinnerModel.setValue(getResFactor(gridData.numColumns,gridData.numRows));
-				lowCtrVal = (Double)lowContourSpinnerModel.getValue();
-				highCtrVal = (Double)highContourSpinnerModel.getValue();
-		        resFactor = (Integer)resFactorSpinnerModel.getValue(); 
-		        spinnerShouldRedraw = true;
-		        
-		        //Enable UI buttons
-				changeColorsButton.setEnabled(true);
-				numContoursSpinner.setEnabled(true);
-				lowContourSpinner.setEnabled(true);
-				highContourSpinner.setEnabled(true);
-				resFactorSpinner.setEnabled(true);
-				markerCheckbox.setEnabled(true);
-				contoursCheckbox.setEnabled(true);
-				wireframeCheckbox.setEnabled(true);
-				
-				//Notify the GL context to generate the display lists.
-				contoursGenerated = false;
-				meshGenerated = false;
+				if(loader != null) loader.cancel(true);
+				loader = new DatasetLoader(newDataFile, quantizeCheckbox.isSelected(), loadProgressBar, cancelLoadButton) {
+					@Override
+					protected void loaded(GridFloatReader data) {
+						showNewData(getPrefix(), data);
+					}
+				};
+				loader.execute();
 			}
    		}
 	}
 	
+	/**
+	 * showNewData sets up the UI for a newly loaded dataset, then hands the dataset to the
+	 * GL context, which swaps it in at the start of its next frame.
+	 * @param newDataFile - The filename (minus extension) the data was read from.
+	 * @param newData - The loaded dataset.
+	 */
+	private void showNewData(String newDataFile, GridFloatReader newData)
+	{
+		//Hold off regenerating the old dataset's display lists while the spinners change.
+		contoursGenerated = true;
+		meshGenerated = true;
+		currentDatafile = newDataFile;
+		
+		//Set up UI spinners, with the default contours spanning all but the outlying cells.
+		spinnerShouldRedraw = false; //Don't redraw during setup.
+		double lowDefault = Math.max(newData.minHeight, Math.ceil(newData.histogram.getQuantile(OUTLIER_FRACTION)));
+		double highDefault = Math.min(newData.maxHeight, Math.floor(newData.histogram.getQuantile(1-OUTLIER_FRACTION)));
+		lowContourSpinnerModel.setMinimum(newData.minHeight);
+		lowContourSpinnerModel.setMaximum(newData.maxHeight);
+		lowContourSpinnerModel.setValue(Math.min(lowDefault, highDefault));
+		highContourSpinnerModel.setMinimum(newData.minHeight);
+		highContourSpinnerModel.setMaximum(newData.maxHeight);
+		highContourSpinnerModel.setValue(Math.max(lowDefault, highDefault));
+		OverviewPyramid overviews = newData.getOverviews();
+		int firstLevel = overviews.getLevelForCells(TerrainMesh.MAX_VERTICES);
+		resFactorSpinnerModel.setList(getResFactors(firstLevel, overviews.getNumLevels()));
+		resFactorSpinnerModel.setValue(1 << Math.max(firstLevel, overviews.getLevelForSize(DEF_MAX_ROWS_COLUMNS)));
+		lowCtrVal = (Double)lowContourSpinnerModel.getValue();
+		highCtrVal = (Double)highContourSpinnerModel.getValue();
+		stepSize = getStepSize(numCtrs, lowCtrVal, highCtrVal);
+		resFactor = (Integer)resFactorSpinnerModel.getValue();
+		resLevel = Integer.numberOfTrailingZeros(resFactor);
+		spinnerShouldRedraw = true;
+		
+		//Enable UI buttons
+		changeColorsButton.setEnabled(true);
+		exportContoursButton.setEnabled(true);
+		numContoursSpinner.setEnabled(true);
+		lowContourSpinner.setEnabled(true);
+		highContourSpinner.setEnabled(true);
+		resFactorSpinner.setEnabled(true);
+		resFilterSpinner.setEnabled(true);
+		markerCheckbox.setEnabled(true);
+		contoursCheckbox.setEnabled(true);
+		wireframeCheckbox.setEnabled(true);
+		
+		pendingData.set(newData);
+	}
+	
+	/**
+	 * setGridData swaps in a newly loaded dataset. It is called on the GL thread, between frames,
+	 * so the display lists are never generated from a mix of the old and new datasets.
+	 * @param newData - The dataset to display.
+	 */
+	private void setGridData(GridFloatReader newData)
+	{
+		gridData = newData;
+		
+		//Determine how to display the gridFloat data.
+		cellSizeRatio = gridData.cellSizeRatio;
+		
+		//Given non-square cells, determine the constraining dimension
+		if(gridData.numRows*cellSizeRatio > gridData.numColumns)
+		{
+			cellSizeY = GRID_SCALE/gridData.numRows;
+			cellSizeX = cellSizeY/cellSizeRatio;
+		}
+		else
+		{
+			cellSizeX = GRID_SCALE/gridData.numColumns;
+			cellSizeY = cellSizeX*cellSizeRatio; 
+		}
+		gridWidth = gridData.numColumns*cellSizeX;
+		gridHeight = gridData.numRows*cellSizeY;
+		gridDepthScale = cellSizeX/gridData.cellSizeX;
+		
+		//Spread the color ramp over all but the outlying cells.
+		lowColorHeight = gridData.histogram.getQuantile(OUTLIER_FRACTION);
+		highColorHeight = gridData.histogram.getQuantile(1-OUTLIER_FRACTION);
+		
+		//A new dataset's grids never match the old one's, so its cached contours are only in the way.
+		contourCache.retainGrids(gridData.getOverviews());
+		requestedFilter = gridData.getOverviewFilter();
+		
+		//Notify the GL context to generate the display lists, and hide the old contours meanwhile.
+		contoursReady = false;
+		contoursGenerated = false;
+		meshGenerated = false;
+	}
+	
 	/**
 	 * Prompts the user to choose the visualization colors via three consecutive prompts.
 	 * Notifies the GL context that the mesh display list must be regenerated.
@@ -448,12 +569,9 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 					markerColor[0] = ((double)markerColorSelection.getRed())/255.;
 					markerColor[1] = ((double)markerColorSelection.getGreen())/255.;
 					markerColor[2] = ((double)markerColorSelection.getBlue())/255.;
-				    colorDist = new double[]{highColor[0] - lowColor[0],
-							 highColor[1] - lowColor[1],
-							 highColor[2] - lowColor[2]};
 				    
-				    //Regenerate the display list.
-				    meshGenerated = false;
+				    //Recolor the mesh.
+				    rampGenerated = false;
 				}
 			}
 		}
@@ -472,13 +590,17 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 	}
 	
 	/**
-	 * Determine the resolution factor at which to draw the loaded data.
-	 * @param numColumns - The number of columns in the data.
-	 * @param numRows - The number of rows in the data.
-	 * @return The appropriate resolution factor.
+	 * List the resolution reduction factors offered by the overview pyramid, one per level.
+	 * Levels too large to mesh are left out.
+	 * @param firstLevel - The first level small enough to mesh.
+	 * @param numLevels - The number of levels in the pyramid.
+	 * @return The factors 2^firstLevel, ... 2^(numLevels-1).
 	 */
-	private int getResFactor(int numColumns, int numRows) {
-		return (int) Math.max(1., Math.ceil(Math.max(numColumns, numRows)/DEF_MAX_ROWS_COLUMNS));
+	private List<Integer> getResFactors(int firstLevel, int numLevels) {
+		List<Integer> factors = new ArrayList<Integer>();
+		for(int level = firstLevel; level < numLevels; level++)
+			factors.add(1 << level);
+		return factors;
 	}
 	
 	/**
@@ -497,169 +619,246 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 	 */
 	private void handleResolutionSpinnerChange()
 	{
+		if(!spinnerShouldRedraw) return;
 		meshGenerated = false;
 		contoursGenerated = false;
 	}
 
 	/**
-	 * A wrapper for drawMesh which stores the commands in a display list instead
-	 * of executing them immediately. meshGenerated must not be true. A polygon offset
-	 * allows the contours and marker to be drawn in front of the mesh by rendering 
-	 * mesh fragments at a greater depth.
+	 * Builds the mesh of the current resolution level and uploads it to the mesh renderer.
+	 * meshGenerated must not be true. The mesh is centered on the origin, with its columns
+	 * and rows at the current resolution's spacing.
 	 */
 	private void generateMesh()
 	{
 		assert(!meshGenerated);
-        gl2.glNewList(meshList, GL2.GL_COMPILE);
-        gl2.glEnable(GL2.GL_POLYGON_OFFSET_FILL);
-        gl2.glPolygonOffset(1.0f, 1.0f);
-        drawMesh();
-        gl2.glDisable(GL2.GL_POLYGON_OFFSET_FILL);
-        gl2.glEndList();
+		if(gridData == null) return;
+		HeightGrid grid = gridData.getOverviews().getLevel(resLevel);
+		ValidityMask mask = gridData.getValidCells(resLevel);
+		double gridTop = -gridHeight/2 + gridData.numRows*cellSizeY;
+		meshRenderer.upload(gl2, TerrainMesh.build(grid, mask, -gridWidth/2, gridTop, cellSizeX*resFactor,
+												   cellSizeY*resFactor, gridDepthScale, gridData.avgHeight));
+	}
+	
+	/**
+	 * Loads the low and high colors into a two-texel one-dimensional texture. Drawn with linear
+	 * filtering, and clamped at its texel centers, the texture reproduces the color ramp between
+	 * the low and high color elevations, so recoloring the mesh does not rebuild it.
+	 */
+	private void generateRamp()
+	{
+		if(rampTexture[0] == 0)
+			gl2.glGenTextures(1, rampTexture, 0);
+		gl2.glBindTexture(GL2.GL_TEXTURE_1D, rampTexture[0]);
+		gl2.glTexParameteri(GL2.GL_TEXTURE_1D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+		gl2.glTexParameteri(GL2.GL_TEXTURE_1D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+		gl2.glTexParameteri(GL2.GL_TEXTURE_1D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+		float[] ramp = new float[]{(float)lowColor[0], (float)lowColor[1], (float)lowColor[2],
+								   (float)highColor[0], (float)highColor[1], (float)highColor[2]};
+		gl2.glTexImage1D(GL2.GL_TEXTURE_1D, 0, GL.GL_RGB, 2, 0, GL.GL_RGB, GL.GL_FLOAT, FloatBuffer.wrap(ramp));
+		gl2.glBindTexture(GL2.GL_TEXTURE_1D, 0);
 	}
 
 	/**
-	 * A wrapper for drawContours which stores the commands in a display list instead
-	 * of executing them immediately.  contoursGenerated must not be true.
+	 * Starts extracting the contours for the current settings on the contour worker thread,
+	 * superseding any earlier request that has not started yet. The display list is compiled
+	 * from the result by display, so the GL thread only uploads finished polylines, and the old
+	 * contours stay on screen until the new ones are ready. Contours are kept in contourCache,
+	 * so only elevations not seen before at this resolution are traced, and a setting whose
+	 * contours are all cached is answered at once without the worker.
 	 */
-	private void generateContours()
+	private void requestContours()
 	{
-		assert(!contoursGenerated);
-        gl2.glNewList(contourList, GL2.GL_COMPILE);
-        drawContours();
-        gl2.glEndList();
+		final int request = ++contourRequest;
+		final GridFloatReader data = gridData;
+		final int level = resLevel;
+		final double[] levels = getContourLevels();
+		ContourPolylines cached = contourCache.getIfCached(data.getOverviews().getLevel(level), levels);
+		if(cached != null)
+		{
+			pendingContours.set(new ContourResult(request, cached));
+			return;
+		}
+		getContourWorker().execute(new Runnable() {
+			@Override
+			public void run() {
+				if(request != contourRequest) return; //A newer request has replaced this one.
+				try
+				{
+					//The grid, index, and mask are taken together, as the pyramid may be rebuilt meanwhile.
+					GridFloatReader.ContourSource source = data.getContourSource(level);
+					pendingContours.set(new ContourResult(request, contourCache.get(source.grid, source.spans, source.mask, levels)));
+				}
+				catch(RuntimeException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		});
 	}
-	
+
 	/**
-	 * drawContours loops across each of the cells for which we have data, and draws each of the contours
-	 * that passes through it.
-	 * 
-	 * Cell Corner Numbering Scheme:
-	 *					[0]------------[1]
-	 *					 '              '
-	 *					 '              '
-	 *					 '              '
-	 *					 '              '
-	 *					[2]------------[3]
+	 * Prompts the user for a file, and exports the contours for the current settings to it on
+	 * the contour worker thread, taking the format from the file's extension: .geojson or .json
+	 * for GeoJSON, .bin for ContourExporter's binary format, and text otherwise.
 	 */
-	private void drawContours()
+	private void exportContours()
 	{
-		if(gridData == null) return;
-		
-		double gridX = -gridWidth/2;
-		double gridY = -gridHeight/2;
+		JFileChooser saveFileDialog = new JFileChooser(appFilePath);
+		if(saveFileDialog.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+		final File file = saveFileDialog.getSelectedFile();
+		final GridFloatReader data = gridData;
+		final int level = resLevel;
+		final double[] levels = getContourLevels();
+		getContourWorker().execute(new Runnable() {
+			@Override
+			public void run() {
+				try
+				{
+					GridFloatReader.ContourSource source = data.getContourSource(level);
+					ContourPolylines contours = contourCache.get(source.grid, source.spans, source.mask, levels);
+					new ContourExporter(data, source.level).write(contours, file, ContourExporter.Format.forFile(file.getName()));
+					System.out.println("Exported "+contours.getTotalVertices()+" contour vertices to "+file+".");
+				}
+				catch(IOException e)
+				{
+					System.err.println("Could not export contours to "+file+": "+e.getMessage());
+				}
+				catch(RuntimeException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		});
+	}
 
-		//Iterate through cells left-to-right, bottom-to-top
-		//Get the lower-left-hand corner of each as cellX, cellY
-		for(int x = 0; x < gridData.numColumns-resFactor; x += resFactor)
-		{
-			double cellX = gridX + x*cellSizeX;
-			for(int y = 0; y < gridData.numRows-resFactor; y += resFactor)
-			{
-				double cellY = gridY + (gridData.numRows-y)*cellSizeY;
-				for(int i = 0; i < numCtrs; i++)
+	/**
+	 * @return The elevation of each contour for the current settings.
+	 */
+	private double[] getContourLevels()
+	{
+		double[] levels = new double[numCtrs];
+		for(int i = 0; i < numCtrs; i++)
+			levels[i] = lowCtrVal + i*stepSize;
+		return levels;
+	}
+
+	/**
+	 * Rebuilds a dataset's reduced levels with another filter on the contour worker thread, so
+	 * that a large dataset does not hold up the GL thread. Contour requests made meanwhile are
+	 * queued behind the rebuild. display redraws from the new levels once they are swapped in.
+	 * @param data - The dataset to rebuild the levels of.
+	 * @param filter - How to combine the cells of each level into the next.
+	 */
+	private void requestOverviewFilter(final GridFloatReader data, final Downsampler.Filter filter)
+	{
+		getContourWorker().execute(new Runnable() {
+			@Override
+			public void run() {
+				try
 				{
-					double thisContour = lowCtrVal + i*stepSize;
-					double contourZVal = gridDepthScale * (thisContour-gridData.avgHeight);
-					double[] ctrColor = CONTOUR_COLOR;
-					
-					boolean[] isHigher = new boolean[]{gridData.height[y][x] > thisContour,
-													   gridData.height[y][x+resFactor] > thisContour,
-													   gridData.height[y+resFactor][x] > thisContour,
-													   gridData.height[y+resFactor][x+resFactor] > thisContour};
-					
-					double distPercent01 = calcDistancePercent(thisContour,x,y,x+resFactor,y);
-					double distPercent02 = calcDistancePercent(thisContour,x,y,x,y+resFactor);
-					double distPercent13 = calcDistancePercent(thisContour,x+resFactor,y,x+resFactor,y+resFactor);
-					double distPercent23 = calcDistancePercent(thisContour,x,y+resFactor,x+resFactor,y+resFactor);
-					
-					double[] p01 = new double[]{cellX + cellSizeX*resFactor*distPercent01, cellY, contourZVal+CONTOUR_DISPLAY_OFFSET};
-					double[] p02 = new double[]{cellX, cellY - cellSizeY*resFactor*distPercent02, contourZVal+CONTOUR_DISPLAY_OFFSET};
-					double[] p13 = new double[]{cellX + cellSizeX*resFactor, cellY - cellSizeY*resFactor*distPercent13, contourZVal+CONTOUR_DISPLAY_OFFSET};
-					double[] p23 = new double[]{cellX + cellSizeX*resFactor*distPercent23, cellY - cellSizeY*resFactor, contourZVal+CONTOUR_DISPLAY_OFFSET};
-					
-					//0 higher points: do nothing [1 case], or 4 higher points: do nothing [1 case]
-					//1 higher point: draw 1 line [4 cases], or 3 higher points: draw 1 line. [4 cases]
-					if((isHigher[0] && !isHigher[1] && !isHigher[2] && !isHigher[3])||
-					   (!isHigher[0] && isHigher[1] && isHigher[2] && isHigher[3]))
-						drawLine(p02, p01, ctrColor);
-					else if ((!isHigher[0] && isHigher[1] && !isHigher[2] && !isHigher[3])||
-							 (isHigher[0] && !isHigher[1] && isHigher[2] && isHigher[3]))
-						drawLine(p01, p13, ctrColor);
-					else if ((!isHigher[0] && !isHigher[1] && isHigher[2] && !isHigher[3])||
-						     (isHigher[0] && isHigher[1] && !isHigher[2] && isHigher[3]))
-						drawLine(p02, p23, ctrColor);
-					else if ((!isHigher[0] && !isHigher[1] && !isHigher[2] && isHigher[3])||
-							 (isHigher[0] && isHigher[1] && isHigher[2] && !isHigher[3]))
-						drawLine(p23, p13, ctrColor);
-					
-					//2 adjacent higher points: draw 1 line. [4 cases]
-					else if((isHigher[0] && isHigher[1] && !isHigher[2] && !isHigher[3])||
-							(!isHigher[0] && !isHigher[1] && isHigher[2] && isHigher[3]))
-						drawLine(p02, p13, ctrColor);
-					else if((isHigher[0] && !isHigher[1] && isHigher[2] && !isHigher[3])||
-							(!isHigher[0] && isHigher[1] && !isHigher[2] && isHigher[3]))
-						drawLine(p01, p23, ctrColor);
-					
-					//2 opposite higher points: draw 2 lines. [2 cases]
-					//This is the ambiguous case. I chose a configuration arbitrarily.
-					else if((isHigher[0] && !isHigher[1] && !isHigher[2] && isHigher[3])||
-							(!isHigher[0] && isHigher[1] && isHigher[2] && !isHigher[3]))
-					{
-						drawLine(p01, p13, ctrColor);
-						drawLine(p02, p23, ctrColor);
-					}
+					data.setOverviewFilter(filter);
+					pendingOverviews.set(data);
+				}
+				catch(RuntimeException e)
+				{
+					e.printStackTrace();
 				}
 			}
-		}
+		});
 	}
 
 	/**
-	 * drawMesh loops across each of the cells for which we have data, and draws a
-	 * triangle strip for each column.
+	 * @return The thread contours are extracted and exported on, and the reduced levels rebuilt
+	 *         on, starting it if need be.
 	 */
-	private void drawMesh()
+	private synchronized ExecutorService getContourWorker()
+	{
+		if(contourWorker == null)
+		{
+			contourWorker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "Contour extractor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return contourWorker;
+	}
+	
+	/**
+	 * A wrapper for drawContours which stores the commands in a display list instead
+	 * of executing them immediately.
+	 * @param contours The stitched contours to draw.
+	 */
+	private void generateContours(ContourPolylines contours)
+	{
+        gl2.glNewList(contourList, GL2.GL_COMPILE);
+        drawContours(contours);
+        gl2.glEndList();
+	}
+	
+	/**
+	 * drawContours draws each contour's polylines as line strips at its elevation. Contours are
+	 * traced by ContourExtractor from the current resolution level and stitched by
+	 * ContourPolylines, in cell coordinates, which are mapped here onto the centered grid.
+	 * @param contours The stitched contours to draw.
+	 */
+	private void drawContours(ContourPolylines contours)
 	{
 		if(gridData == null) return;
 		
-		//Offsets for the grid, to center it.
 		double gridX = -gridWidth/2;
-		double gridY = -gridHeight/2;
+		double gridTop = -gridHeight/2 + gridData.numRows*cellSizeY;
+		double stepX = cellSizeX*resFactor;
+		double stepY = cellSizeY*resFactor;
 		
-		//Iterate through cells bottom-to-top, left-to-right
-		//Get the lower-left-hand corner of each as cellX, cellY
-		for(int x = 0; x < gridData.numColumns-resFactor; x += resFactor)
+		gl2.glColor3d(CONTOUR_COLOR[0], CONTOUR_COLOR[1], CONTOUR_COLOR[2]);
+		for(int i = 0; i < contours.levels.length; i++)
 		{
-			double cellX = gridX + x*cellSizeX;
-			gl2.glBegin(GL.GL_TRIANGLE_STRIP);
-			for(int y = 0; y < gridData.numRows; y += resFactor)
+			double contourZVal = gridDepthScale * (contours.levels[i]-gridData.avgHeight) + CONTOUR_DISPLAY_OFFSET;
+			float[] vertices = contours.getVertices(i);
+			int[] starts = contours.getStarts(i);
+			for(int line = 0; line < contours.getNumPolylines(i); line++)
 			{
-				double cellY = gridY+(gridData.numRows-y)*cellSizeY;
-				
-				gl2.glColor3dv(DoubleBuffer.wrap(elevationToColor(gridData.height[y][x])));
-				gl2.glVertex3dv(DoubleBuffer.wrap(new double[]{cellX, cellY, gridDepthScale*(gridData.height[y][x]-gridData.avgHeight)}));
-				
-				gl2.glColor3dv(DoubleBuffer.wrap(elevationToColor(gridData.height[y][x+resFactor])));
-				gl2.glVertex3dv(DoubleBuffer.wrap(new double[]{cellX+cellSizeX*resFactor, cellY, gridDepthScale*(gridData.height[y][x+resFactor]-gridData.avgHeight)}));
+				gl2.glBegin(GL.GL_LINE_STRIP);
+				for(int j = 2*starts[line]; j < 2*starts[line+1]; j += 2)
+					gl2.glVertex3d(gridX + vertices[j]*stepX, gridTop - vertices[j+1]*stepY, contourZVal);
+				gl2.glEnd();
 			}
-			gl2.glEnd();
 		}
 	}
-	
+
 	/**
-	 * drawLine draws a single line between two three-component points.
-	 * 
-	 * @param v1 The first point.
-	 * @param v2 The second point.
-	 * @param c The color of the line.
+	 * drawMesh draws the uploaded mesh, colored by elevation. Each vertex's elevation is its
+	 * coordinate in the color ramp texture, which the texture matrix maps from the low color
+	 * elevation, at the center of the low texel, to the high color elevation, at the center of
+	 * the high texel. A polygon offset allows the contours and marker to be drawn in front of
+	 * the mesh by rendering mesh fragments at a greater depth.
 	 */
-	private void drawLine(double[] v1, double[] v2, double[] c)
+	private void drawMesh()
 	{
-		gl2.glColor3d(c[0],c[1],c[2]);
-		gl2.glBegin(GL.GL_LINES);
-		gl2.glVertex3dv(DoubleBuffer.wrap(v1));
-		gl2.glVertex3dv(DoubleBuffer.wrap(v2));
-		gl2.glEnd();
+		double rampScale = highColorHeight > lowColorHeight ? 0.5/(highColorHeight-lowColorHeight) : 0;
+		gl2.glMatrixMode(GL2.GL_TEXTURE);
+		gl2.glLoadIdentity();
+		gl2.glTranslated(0.25, 0, 0);
+		gl2.glScaled(rampScale, 1, 1);
+		gl2.glTranslated(-lowColorHeight, 0, 0);
+		gl2.glMatrixMode(GL2.GL_MODELVIEW);
+		gl2.glEnable(GL2.GL_TEXTURE_1D);
+		gl2.glBindTexture(GL2.GL_TEXTURE_1D, rampTexture[0]);
+		gl2.glColor3d(1, 1, 1);
+		gl2.glEnable(GL2.GL_POLYGON_OFFSET_FILL);
+		gl2.glPolygonOffset(1.0f, 1.0f);
+		meshRenderer.draw(gl2, false, true);
+		gl2.glDisable(GL2.GL_POLYGON_OFFSET_FILL);
+		gl2.glBindTexture(GL2.GL_TEXTURE_1D, 0);
+		gl2.glDisable(GL2.GL_TEXTURE_1D);
+		gl2.glMatrixMode(GL2.GL_TEXTURE);
+		gl2.glLoadIdentity();
+		gl2.glMatrixMode(GL2.GL_MODELVIEW);
 	}
 	
 	/**
@@ -676,44 +875,6 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 		gl2.glEnd();
 	}
 	
-	/**
-	 * Returns the fraction of the distance between two points at which a
-	 * provided elevation will fall, according to linear interpolation.
-	 * @param cVal the contour value
-	 * @param x0 the first point's x
-	 * @param y0 the first point's y
-	 * @param x1 the second point's x
-	 * @param y1 the second point's y
-	 * @return the fraction, a double
-	 */
-	private double calcDistancePercent(double cVal, int x0, int y0, int x1, int y1)
-	{
-		if(gridData == null) return -1;
-		return (gridData.height[y0][x0]-cVal)/(gridData.height[y0][x0]-gridData.height[y1][x1]);
-	}
-
-	/**
-	 * Interpolate between the low and high color to determine an appropriate color
-	 * for an elevation between the low and high elevation.
-	 * @param elevation the elevation to find a color for.
-	 * @return the color, in a double array of length 3 (RGB)
-	 */
-	private double[] elevationToColor(double elevation)
-	{
-		double[] colorVal;
-		if(elevation <= gridData.minHeight) colorVal = lowColor;
-		else if (elevation >= gridData.maxHeight) colorVal = highColor;
-		else if (gridData.minHeight == gridData.maxHeight) colorVal = lowColor;
-		else
-		{
-			double percentElev = (elevation-gridData.minHeight)/(gridData.maxHeight-gridData.minHeight);
-			colorVal = new double[]{lowColor[0] + colorDist[0]*percentElev,
-									lowColor[1] + colorDist[1]*percentElev,
-									lowColor[2] + colorDist[2]*percentElev};
-		}
-		return colorVal;
-	}
-	
 	//------------------------------------------------------------------------------
     // GLEventListener Implementation
     
@@ -732,18 +893,25 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 		//that they've been generated.
 		if(!listNumsGenerated)
 		{
-	        meshList = gl2.glGenLists(2);
-	        contourList = meshList+1;
+	        contourList = gl2.glGenLists(1);
 	        listNumsGenerated = true;
-	        assert(meshList == 0); //glGenLists only returns 0 because of an error.
+	        assert(contourList != 0); //glGenLists only returns 0 because of an error.
 		}
 	}
 
 	/**
-	 * dispose is called when the context is closed.
+	 * dispose is called when the context is closed, and frees the mesh's buffers and the
+	 * color ramp texture.
 	 */
 	@Override
 	public void dispose(GLAutoDrawable glautodrawable) {
+		gl2 = glautodrawable.getGL().getGL2();
+		meshRenderer.dispose(gl2);
+		if(rampTexture[0] != 0)
+			gl2.glDeleteTextures(1, rampTexture, 0);
+		rampTexture[0] = 0;
+		meshGenerated = false;
+		rampGenerated = false;
 	}
 
 	/**
@@ -752,9 +920,29 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 	 */
 	@Override
 	public void display(GLAutoDrawable glautodrawable) {
+		//Swap in a newly loaded dataset, if one is waiting.
+		GridFloatReader newData = pendingData.getAndSet(null);
+		if(newData != null)
+			setGridData(newData);
+		
 		//Only redraw when there's a loaded file.
-		if(!currentDatafile.equals(""))
+		if(gridData != null)
 		{
+			//Rebuild the reduced levels in the background if another filter has been chosen for
+			//them, and redraw from them once they are swapped in.
+			if(requestedFilter != resFilter)
+			{
+				requestedFilter = resFilter;
+				requestOverviewFilter(gridData, resFilter);
+			}
+			if(pendingOverviews.getAndSet(null) == gridData)
+			{
+				//The reduced levels' grids have been replaced; only level 0's contours still apply.
+				contourCache.retainGrids(gridData.getOverviews());
+				contoursGenerated = false;
+				meshGenerated = false;
+			}
+			
 			//Get our context
 			gl2 = glautodrawable.getGL().getGL2();
 			gl2.glMatrixMode(GL2.GL_MODELVIEW);
@@ -766,17 +954,29 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 						  upVector[0], upVector[1], upVector[2]);
 			gl2.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);
 			
-			//Generate display lists if need be.
+			//Generate display lists if need be. Contours are extracted in the background, and
+			//compiled once the latest request's are ready.
 			if(!contoursGenerated)
 			{
-		        generateContours();
+		        requestContours();
 		        contoursGenerated = true;
 			}
+			ContourResult extracted = pendingContours.getAndSet(null);
+			if(extracted != null && extracted.request == contourRequest)
+			{
+				generateContours(extracted.contours);
+				contoursReady = true;
+			}
 			if(!meshGenerated)
 			{
 		        generateMesh();
 		        meshGenerated = true;
 			}
+			if(!rampGenerated)
+			{
+				generateRamp();
+				rampGenerated = true;
+			}
 			
 			//Handle mouse input to apply rotation.
 			if(mouseDown)
@@ -795,9 +995,9 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 			if(showWireframe)
 				gl2.glPolygonMode( GL2.GL_FRONT_AND_BACK, GL2.GL_LINE );
 			
-			//Call the display lists.
-			gl2.glCallList(meshList);
-			if(showContours)
+			//Draw the mesh, and call the contours' display list.
+			drawMesh();
+			if(showContours && contoursReady)
 				gl2.glCallList(contourList);
 			
 			//Return the renderer to normal.
@@ -879,6 +1079,21 @@ public class TerrainVis extends Frame implements GLEventListener, MouseListener,
 	}
 	
 	
+	/**
+	 * ContourResult holds the contours extracted for one request, until the GL thread compiles them.
+	 */
+	private static class ContourResult
+	{
+		final int request;
+		final ContourPolylines contours;
+		
+		ContourResult(int request, ContourPolylines contours)
+		{
+			this.request = request;
+			this.contours = contours;
+		}
+	}
+	
 	//------------------------------------------------------------------------------
     // Main Call
 	
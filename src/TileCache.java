@@ -0,0 +1,176 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * TileCache holds recently used blocks of GridFloat tiles, loading them on demand and evicting
+ * the least recently used blocks once their total size passes a limit in bytes. Uncompressed
+ * tiles are split into square blocks read with positional reads, so only the parts of a large
+ * tile that are in use are held. A compressed tile can only be read in order, so it is cached
+ * as a single block.
+ *
+ * Blocks are read outside the cache's lock, so a slow read of one block does not hold up
+ * requests for any other. Threads asking for a block that is already being read wait for that
+ * read rather than starting their own.
+ */
+public class TileCache
+{
+	//The rows and columns in each block of an uncompressed tile.
+	public static final int BLOCK_SIZE = 1024;
+
+	private final long maxBytes;
+	private final LinkedHashMap<String,HeightGrid> blocks = new LinkedHashMap<String,HeightGrid>(16, 0.75f, true);
+	//The reads in progress, by key.
+	private final HashMap<String,FutureTask<HeightGrid>> reads = new HashMap<String,FutureTask<HeightGrid>>();
+	private long bytes, hits, misses;
+
+	/**
+	 * @param maxBytes - The total size of the blocks to keep. The most recently used block is
+	 *                   always kept, even if it alone is larger.
+	 */
+	public TileCache(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param tile - The tile to be read.
+	 * @return The rows and columns in each of the tile's blocks.
+	 */
+	public int getBlockSize(GridFloatExtent tile)
+	{
+		return GridFloatReader.isDataCompressed(tile.prefix) ? Math.max(tile.numColumns, tile.numRows) : BLOCK_SIZE;
+	}
+
+	/**
+	 * Gets a block of a tile, reading it if it is not already cached.
+	 * @param tile - The tile the block is in.
+	 * @param blockRow - The row of the block, counting blocks from the tile's northern edge.
+	 * @param blockColumn - The column of the block, counting blocks from the tile's western edge.
+	 * @return The heights in the block, or null if the tile cannot be read. Blocks along the
+	 *         tile's southern and eastern edges may be smaller than the rest. A failed read is not
+	 *         cached, so the block is read again the next time it is asked for.
+	 */
+	public HeightGrid get(final GridFloatExtent tile, int blockRow, int blockColumn)
+	{
+		String key = tile.prefix+"@"+blockRow+","+blockColumn;
+		FutureTask<HeightGrid> read;
+		boolean reader = false;
+		synchronized(this)
+		{
+			HeightGrid block = blocks.get(key);
+			if(block != null)
+			{
+				hits++;
+				return block;
+			}
+			read = reads.get(key);
+			if(read != null)
+				hits++;
+			else
+			{
+				misses++;
+				int blockSize = getBlockSize(tile);
+				final int firstRow = blockRow*blockSize, firstColumn = blockColumn*blockSize;
+				final int numRows = Math.min(blockSize, tile.numRows-firstRow), numColumns = Math.min(blockSize, tile.numColumns-firstColumn);
+				read = new FutureTask<HeightGrid>(new Callable<HeightGrid>() {
+					@Override
+					public HeightGrid call() {
+						return GridFloatReader.readHeights(tile, firstRow, firstColumn, numRows, numColumns);
+					}
+				});
+				reads.put(key, read);
+				reader = true;
+			}
+		}
+
+		if(reader)
+		{
+			read.run();
+			synchronized(this)
+			{
+				reads.remove(key);
+				if(!read.isCancelled())
+				{
+					try
+					{
+						if(read.get() != null)
+							store(key, read.get());
+					}
+					catch(ExecutionException | InterruptedException e)
+					{
+						//The failure is rethrown below.
+					}
+				}
+			}
+		}
+		try
+		{
+			return read.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Reading "+key+" was interrupted.");
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			if(e.getCause() instanceof Error)
+				throw (Error)e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Adds a block that has been read, then evicts the least recently used blocks until the
+	 * total size is within the limit. Must be called with the cache's lock held.
+	 * @param key - The block's key.
+	 * @param block - The heights in the block.
+	 */
+	private void store(String key, HeightGrid block)
+	{
+		blocks.put(key, block);
+		bytes += 4L*block.numColumns*block.numRows;
+
+		//Evict in access order, which leaves the block just read for last.
+		Iterator<Map.Entry<String,HeightGrid>> eldest = blocks.entrySet().iterator();
+		while(bytes > maxBytes && blocks.size() > 1)
+		{
+			HeightGrid evicted = eldest.next().getValue();
+			bytes -= 4L*evicted.numColumns*evicted.numRows;
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * @return The total size of the cached blocks, in bytes.
+	 */
+	public synchronized long getBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * @return The number of requests answered from the cache, or by a read that another
+	 *         request had already started.
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * @return The number of requests that had to read a block.
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+}
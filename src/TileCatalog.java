@@ -0,0 +1,288 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * TileCatalog indexes the extents of a collection of GridFloat tiles, so that the tiles covering
+ * a point or overlapping a box can be found without opening any of them. The index is a uniform
+ * grid of buckets over the catalog's bounds, each roughly the size of a typical tile, listing the
+ * tiles that overlap it. A catalog is immutable once built, so it can be queried from any thread.
+ */
+public class TileCatalog
+{
+	//The number of tiles below which a list of tiles is probed serially rather than split.
+	private static final int PROBES_PER_TASK = 16;
+	//The most buckets allowed per tile, for catalogs whose tiles are spread thinly.
+	private static final int MAX_BUCKETS_PER_TILE = 16;
+
+	public final double minLat, maxLat, minLong, maxLong;
+	private final GridFloatExtent[] tiles;
+	private final int bucketColumns, bucketRows;
+	private final double bucketWidth, bucketHeight;
+	//The tiles in bucket b are bucketTiles[bucketStarts[b]] to bucketTiles[bucketStarts[b+1]-1].
+	private final int[] bucketStarts, bucketTiles;
+
+	/**
+	 * Builds a catalog of the given tiles.
+	 * @param extents - The extents of the tiles.
+	 */
+	public TileCatalog(Collection<GridFloatExtent> extents)
+	{
+		tiles = extents.toArray(new GridFloatExtent[extents.size()]);
+		double south = Double.POSITIVE_INFINITY, north = Double.NEGATIVE_INFINITY;
+		double west = Double.POSITIVE_INFINITY, east = Double.NEGATIVE_INFINITY;
+		double[] widths = new double[tiles.length], heights = new double[tiles.length];
+		for (int i = 0; i < tiles.length; i++)
+		{
+			south = Math.min(south, tiles[i].minLat);
+			north = Math.max(north, tiles[i].maxLat);
+			west = Math.min(west, tiles[i].minLong);
+			east = Math.max(east, tiles[i].maxLong);
+			widths[i] = tiles[i].maxLong-tiles[i].minLong;
+			heights[i] = tiles[i].maxLat-tiles[i].minLat;
+		}
+		minLat = tiles.length > 0 ? south : 0;
+		maxLat = tiles.length > 0 ? north : 0;
+		minLong = tiles.length > 0 ? west : 0;
+		maxLong = tiles.length > 0 ? east : 0;
+
+		//Size buckets like the median tile, then grow them if there would be too many.
+		double width = Math.max(median(widths), Double.MIN_NORMAL);
+		double height = Math.max(median(heights), Double.MIN_NORMAL);
+		long maxBuckets = (long)MAX_BUCKETS_PER_TILE*tiles.length + 1;
+		while(bucketCount(maxLong-minLong, width)*bucketCount(maxLat-minLat, height) > maxBuckets)
+		{
+			width *= 2;
+			height *= 2;
+		}
+		bucketColumns = (int)bucketCount(maxLong-minLong, width);
+		bucketRows = (int)bucketCount(maxLat-minLat, height);
+		bucketWidth = width;
+		bucketHeight = height;
+
+		//Count the tiles in each bucket, then fill the buckets in a second pass.
+		bucketStarts = new int[bucketColumns*bucketRows+1];
+		for (GridFloatExtent tile : tiles)
+			for (int row = getBucketRow(tile.minLat); row <= getBucketRow(tile.maxLat); row++)
+				for (int column = getBucketColumn(tile.minLong); column <= getBucketColumn(tile.maxLong); column++)
+					bucketStarts[row*bucketColumns+column+1]++;
+		for (int b = 0; b < bucketColumns*bucketRows; b++)
+			bucketStarts[b+1] += bucketStarts[b];
+		bucketTiles = new int[bucketStarts[bucketColumns*bucketRows]];
+		int[] fill = Arrays.copyOf(bucketStarts, bucketColumns*bucketRows);
+		for (int i = 0; i < tiles.length; i++)
+			for (int row = getBucketRow(tiles[i].minLat); row <= getBucketRow(tiles[i].maxLat); row++)
+				for (int column = getBucketColumn(tiles[i].minLong); column <= getBucketColumn(tiles[i].maxLong); column++)
+					bucketTiles[fill[row*bucketColumns+column]++] = i;
+	}
+
+	/**
+	 * Builds a catalog of every GridFloat tile in a directory and its subdirectories. A tile is
+	 * found by its header, which may be plain (prefix.hdr), gzipped (prefix.hdr.gz), or inside a
+	 * zip archive (prefix.zip). Directories are listed, and tiles probed, in parallel on the common
+	 * fork-join pool. Tiles whose headers cannot be read are reported and left out.
+	 * @param directory - The directory to search.
+	 * @return The catalog of the tiles found, in order of their prefixes.
+	 */
+	public static TileCatalog scan(File directory)
+	{
+		List<GridFloatExtent> extents = ForkJoinPool.commonPool().invoke(new ScanTask(directory));
+		Collections.sort(extents, new Comparator<GridFloatExtent>() {
+			@Override
+			public int compare(GridFloatExtent a, GridFloatExtent b) {
+				return a.prefix.compareTo(b.prefix);
+			}
+		});
+		return new TileCatalog(extents);
+	}
+
+	/**
+	 * Finds the tiles that cover a point, including those with the point on an edge.
+	 * @param lat - The latitude of the point.
+	 * @param lon - The longitude of the point.
+	 * @return The covering tiles, in catalog order.
+	 */
+	public List<GridFloatExtent> findCovering(double lat, double lon)
+	{
+		List<GridFloatExtent> found = new ArrayList<GridFloatExtent>();
+		if(tiles.length == 0 || lat < minLat || lat > maxLat || lon < minLong || lon > maxLong)
+			return found;
+		int bucket = getBucketRow(lat)*bucketColumns+getBucketColumn(lon);
+		for (int i = bucketStarts[bucket]; i < bucketStarts[bucket+1]; i++)
+			if(tiles[bucketTiles[i]].contains(lat, lon))
+				found.add(tiles[bucketTiles[i]]);
+		return found;
+	}
+
+	/**
+	 * Finds the tiles that overlap a box, including those that only touch its edges.
+	 * @param minLat - The southern edge of the box.
+	 * @param minLong - The western edge of the box.
+	 * @param maxLat - The northern edge of the box.
+	 * @param maxLong - The eastern edge of the box.
+	 * @return The overlapping tiles.
+	 */
+	public List<GridFloatExtent> findIntersecting(double minLat, double minLong, double maxLat, double maxLong)
+	{
+		List<GridFloatExtent> found = new ArrayList<GridFloatExtent>();
+		if(tiles.length == 0 || minLat > this.maxLat || maxLat < this.minLat || minLong > this.maxLong || maxLong < this.minLong)
+			return found;
+		int firstRow = getBucketRow(minLat), lastRow = getBucketRow(maxLat);
+		int firstColumn = getBucketColumn(minLong), lastColumn = getBucketColumn(maxLong);
+		for (int row = firstRow; row <= lastRow; row++)
+		{
+			for (int column = firstColumn; column <= lastColumn; column++)
+			{
+				int bucket = row*bucketColumns+column;
+				for (int i = bucketStarts[bucket]; i < bucketStarts[bucket+1]; i++)
+				{
+					GridFloatExtent tile = tiles[bucketTiles[i]];
+					//A tile spanning several of the buckets is only reported from the first of them.
+					if(row == Math.max(firstRow, getBucketRow(tile.minLat))
+							&& column == Math.max(firstColumn, getBucketColumn(tile.minLong))
+							&& tile.intersects(minLat, minLong, maxLat, maxLong))
+						found.add(tile);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return The number of tiles in the catalog.
+	 */
+	public int size()
+	{
+		return tiles.length;
+	}
+
+	/**
+	 * @return The tiles in the catalog, in catalog order.
+	 */
+	public List<GridFloatExtent> getTiles()
+	{
+		return Collections.unmodifiableList(Arrays.asList(tiles));
+	}
+
+	private int getBucketRow(double lat)
+	{
+		return Math.max(0, Math.min(bucketRows-1, (int)((lat-minLat)/bucketHeight)));
+	}
+
+	private int getBucketColumn(double lon)
+	{
+		return Math.max(0, Math.min(bucketColumns-1, (int)((lon-minLong)/bucketWidth)));
+	}
+
+	private static long bucketCount(double span, double size)
+	{
+		return Math.max(1, (long)Math.ceil(span/size));
+	}
+
+	private static double median(double[] values)
+	{
+		if(values.length == 0) return 1;
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length/2];
+	}
+
+	/**
+	 * ScanTask lists a directory, forking a task for each of its subdirectories and probing
+	 * the tiles it holds directly.
+	 */
+	private static class ScanTask extends RecursiveTask<List<GridFloatExtent>>
+	{
+		private static final long serialVersionUID = 1L;
+		private final File directory;
+
+		ScanTask(File directory)
+		{
+			this.directory = directory;
+		}
+
+		@Override
+		protected List<GridFloatExtent> compute()
+		{
+			File[] files = directory.listFiles();
+			List<GridFloatExtent> extents = new ArrayList<GridFloatExtent>();
+			if(files == null)
+			{
+				System.err.println(directory+" could not be listed.");
+				return extents;
+			}
+			List<ScanTask> subdirectories = new ArrayList<ScanTask>();
+			Set<String> prefixes = new LinkedHashSet<String>();
+			for (File file : files)
+			{
+				String name = file.getName().toLowerCase();
+				if(file.isDirectory())
+				{
+					ScanTask task = new ScanTask(file);
+					task.fork();
+					subdirectories.add(task);
+				}
+				else if(name.endsWith(".hdr") || name.endsWith(".hdr.gz") || name.endsWith(".zip"))
+					prefixes.add(GridFloatReader.getPrefix(file.getPath()));
+			}
+			extents.addAll(new ProbeTask(prefixes.toArray(new String[prefixes.size()]), 0, prefixes.size()).compute());
+			for (ScanTask task : subdirectories)
+				extents.addAll(task.join());
+			return extents;
+		}
+	}
+
+	/**
+	 * ProbeTask reads the headers of a range of tiles, splitting the range in half until it is
+	 * small enough to probe directly.
+	 */
+	private static class ProbeTask extends RecursiveTask<List<GridFloatExtent>>
+	{
+		private static final long serialVersionUID = 1L;
+		private final String[] prefixes;
+		private final int first, end;
+
+		ProbeTask(String[] prefixes, int first, int end)
+		{
+			this.prefixes = prefixes;
+			this.first = first;
+			this.end = end;
+		}
+
+		@Override
+		protected List<GridFloatExtent> compute()
+		{
+			if(end-first <= PROBES_PER_TASK)
+			{
+				List<GridFloatExtent> extents = new ArrayList<GridFloatExtent>(end-first);
+				for (int i = first; i < end; i++)
+				{
+					try
+					{
+						extents.add(GridFloatExtent.probe(prefixes[i]));
+					}
+					catch(IOException e)
+					{
+						System.err.println(prefixes[i]+" could not be catalogued: "+e.getMessage());
+					}
+				}
+				return extents;
+			}
+			int mid = (first+end) >>> 1;
+			ProbeTask upper = new ProbeTask(prefixes, mid, end);
+			upper.fork();
+			List<GridFloatExtent> extents = new ProbeTask(prefixes, first, mid).compute();
+			extents.addAll(upper.join());
+			return extents;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+import java.util.Arrays;
+
+/**
+ * TileMosaic stitches adjacent GridFloat tiles into one virtual height field, laid out by the
+ * tiles' header extents. The mosaic is never loaded as a whole: windows of it are read on demand,
+ * from tiles held in a TileCache, so an area much larger than memory can be explored a piece at a
+ * time. All the tiles must share the same cell size. Where tiles overlap, as USGS tiles do along
+ * their edges, they are expected to agree on the cells they share; cells covered by no tile are
+ * empty.
+ */
+public class TileMosaic
+{
+	//How far, as a fraction of a cell, tile cell sizes may differ.
+	private static final double CELL_SIZE_TOLERANCE = 1e-6;
+
+	public final String name;
+	public final int numColumns, numRows, noData;
+	public final double cellSize, minLat, maxLat, minLong, maxLong;
+	private final TileCatalog catalog;
+	private final TileCache cache;
+
+	/**
+	 * Creates a mosaic of the tiles in a catalog.
+	 * @param name - A name for the mosaic, such as the directory the tiles were found in.
+	 * @param catalog - The tiles to stitch together.
+	 * @param cacheBytes - The most memory to spend on cached tiles.
+	 * @throws IllegalArgumentException If there are no tiles, or their cell sizes differ.
+	 */
+	public TileMosaic(String name, TileCatalog catalog, long cacheBytes)
+	{
+		if(catalog.size() == 0)
+			throw new IllegalArgumentException(name+" has no GridFloat tiles.");
+		this.name = name;
+		this.catalog = catalog;
+		cache = new TileCache(cacheBytes);
+		GridFloatExtent first = catalog.getTiles().get(0);
+		cellSize = first.cellSize;
+		noData = first.noData;
+		for (GridFloatExtent tile : catalog.getTiles())
+			if(Math.abs(tile.cellSize-cellSize) > cellSize*CELL_SIZE_TOLERANCE)
+				throw new IllegalArgumentException(tile.prefix+" has cells of "+tile.cellSize+"\u00b0, not "+cellSize+"\u00b0 like "+first.prefix+".");
+		minLat = catalog.minLat;
+		maxLat = catalog.maxLat;
+		minLong = catalog.minLong;
+		maxLong = catalog.maxLong;
+		numColumns = (int)Math.round((maxLong-minLong)/cellSize);
+		numRows = (int)Math.round((maxLat-minLat)/cellSize);
+	}
+
+	/**
+	 * Reads a window of the mosaic, loading the blocks of the tiles it overlaps as needed. The
+	 * cells of a tile whose data file cannot be read are left empty.
+	 * @param firstRow - The first (northernmost) row of the window.
+	 * @param firstColumn - The first (westernmost) column of the window.
+	 * @param windowRows - The number of rows in the window.
+	 * @param windowColumns - The number of columns in the window.
+	 * @return A dataset holding the window, with its statistics.
+	 * @throws IllegalArgumentException If the window does not lie within the mosaic.
+	 */
+	public GridFloatReader readWindow(int firstRow, int firstColumn, int windowRows, int windowColumns)
+	{
+		return GridFloatReader.fromMosaic(this, firstRow, firstColumn, readHeights(firstRow, firstColumn, windowRows, windowColumns));
+	}
+
+	/**
+	 * Reads the heights in a window of the mosaic, as readWindow does, without computing any
+	 * statistics.
+	 * @see #readWindow(int, int, int, int)
+	 * @return The heights in the window.
+	 */
+	public HeightGrid readHeights(int firstRow, int firstColumn, int windowRows, int windowColumns)
+	{
+		if(firstRow < 0 || firstColumn < 0 || windowRows < 1 || windowColumns < 1
+				|| firstRow+windowRows > numRows || firstColumn+windowColumns > numColumns)
+			throw new IllegalArgumentException("Window of "+windowColumns+" X "+windowRows+" at ("+firstColumn+", "+firstRow
+					+") lies outside the "+numColumns+" X "+numRows+" mosaic.");
+		HeightGrid window = new HeightGrid(windowColumns, windowRows);
+		float[] data = window.getData();
+		Arrays.fill(data, noData);
+
+		double north = maxLat - cellSize*firstRow;
+		double west = minLong + cellSize*firstColumn;
+		for (GridFloatExtent tile : catalog.findIntersecting(north - cellSize*windowRows, west, north, west + cellSize*windowColumns))
+		{
+			//The mosaic row and column of the tile's northwestern cell.
+			int tileRow = (int)Math.round((maxLat-tile.maxLat)/cellSize);
+			int tileColumn = (int)Math.round((tile.minLong-minLong)/cellSize);
+			int startRow = Math.max(firstRow, tileRow), endRow = Math.min(firstRow+windowRows, tileRow+tile.numRows);
+			int startColumn = Math.max(firstColumn, tileColumn), endColumn = Math.min(firstColumn+windowColumns, tileColumn+tile.numColumns);
+			if(startRow >= endRow || startColumn >= endColumn)
+				continue;
+
+			int blockSize = cache.getBlockSize(tile);
+			for (int blockRow = (startRow-tileRow)/blockSize; blockRow <= (endRow-1-tileRow)/blockSize; blockRow++)
+			{
+				for (int blockColumn = (startColumn-tileColumn)/blockSize; blockColumn <= (endColumn-1-tileColumn)/blockSize; blockColumn++)
+				{
+					HeightGrid block = cache.get(tile, blockRow, blockColumn);
+					//A block that cannot be read leaves its cells empty.
+					if(block == null)
+						continue;
+					int blockFirstRow = tileRow + blockRow*blockSize;
+					int blockFirstColumn = tileColumn + blockColumn*blockSize;
+					int x0 = Math.max(startColumn, blockFirstColumn), x1 = Math.min(endColumn, blockFirstColumn+block.numColumns);
+					int y0 = Math.max(startRow, blockFirstRow), y1 = Math.min(endRow, blockFirstRow+block.numRows);
+					copyBlock(block, tile.noData, x0-blockFirstColumn, y0-blockFirstRow,
+							data, (y0-firstRow)*windowColumns + (x0-firstColumn), windowColumns, x1-x0, y1-y0);
+				}
+			}
+		}
+		return window;
+	}
+
+	/**
+	 * Reads a square window of the mosaic centered as near a cell as the mosaic's edges allow.
+	 * @param centerRow - The row of the cell to center the window on.
+	 * @param centerColumn - The column of the cell to center the window on.
+	 * @param size - The rows and columns in the window, if the mosaic is that large.
+	 * @return A dataset holding the window, with its statistics.
+	 */
+	public GridFloatReader readWindowAround(int centerRow, int centerColumn, int size)
+	{
+		int windowRows = Math.min(size, numRows), windowColumns = Math.min(size, numColumns);
+		int firstRow = Math.max(0, Math.min(numRows-windowRows, centerRow-windowRows/2));
+		int firstColumn = Math.max(0, Math.min(numColumns-windowColumns, centerColumn-windowColumns/2));
+		return readWindow(firstRow, firstColumn, windowRows, windowColumns);
+	}
+
+	/**
+	 * Copies a rectangle of a block into a window, replacing the tile's empty value with the
+	 * mosaic's. Empty cells do not overwrite cells already filled by another tile.
+	 */
+	private void copyBlock(HeightGrid block, float tileNoData, int blockX, int blockY,
+			float[] dest, int destOffset, int destColumns, int columns, int rows)
+	{
+		float[] row = new float[columns];
+		for (int y = 0; y < rows; y++)
+		{
+			block.getCells((blockY+y)*block.numColumns + blockX, row, 0, columns);
+			int to = destOffset + y*destColumns;
+			for (int x = 0; x < columns; x++)
+			{
+				float value = row[x];
+				if(value != tileNoData)
+					dest[to+x] = value;
+			}
+		}
+	}
+
+	/**
+	 * @return The cache holding the mosaic's tiles.
+	 */
+	public TileCache getCache()
+	{
+		return cache;
+	}
+}
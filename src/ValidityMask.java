@@ -0,0 +1,186 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ValidityMask records which cells of a height grid hold data, one bit per cell, so that the
+ * renderers can find and skip empty cells without comparing heights. Each row starts on a new
+ * 64-bit word, and runs of cells are tested a word at a time, so that whole blocks of valid or
+ * empty terrain are recognized with a few operations.
+ */
+public class ValidityMask
+{
+	//The number of rows below which a band is built serially rather than split.
+	private static final int ROWS_PER_BAND = 64;
+
+	public final int numColumns, numRows;
+	private final int wordsPerRow;
+	//Bit (x & 63) of words[y*wordsPerRow + (x >>> 6)] is set if cell (x, y) is valid.
+	private final long[] words;
+	private long numValid;
+
+	private ValidityMask(int numColumns, int numRows)
+	{
+		this.numColumns = numColumns;
+		this.numRows = numRows;
+		wordsPerRow = (numColumns+63) >>> 6;
+		words = new long[wordsPerRow*numRows];
+	}
+
+	/**
+	 * Builds the mask of a grid. Bands of rows are built in parallel on the common fork-join pool.
+	 * @param grid - The grid to mask.
+	 * @param noData - The value marking empty cells.
+	 * @return The mask of the grid's non-empty cells.
+	 */
+	public static ValidityMask build(HeightGrid grid, float noData)
+	{
+		ValidityMask mask = new ValidityMask(grid.numColumns, grid.numRows);
+		ForkJoinPool.commonPool().invoke(new BuildTask(mask, grid, noData, 0, grid.numRows));
+		for (long word : mask.words)
+			mask.numValid += Long.bitCount(word);
+		return mask;
+	}
+
+	/**
+	 * Sets the bits of a band of rows.
+	 */
+	private void buildRows(HeightGrid grid, float noData, int firstRow, int endRow)
+	{
+		for (int y = firstRow; y < endRow; y++)
+		{
+			//Gather each word's bits before storing it.
+			for (int w = 0; w < wordsPerRow; w++)
+			{
+				long word = 0;
+				for (int x = w << 6; x < Math.min(numColumns, (w+1) << 6); x++)
+					if(grid.get(x, y) != noData)
+						word |= 1L << x;
+				words[y*wordsPerRow + w] = word;
+			}
+		}
+	}
+
+	/**
+	 * @param x - The column of the cell.
+	 * @param y - The row of the cell.
+	 * @return true if the cell holds data.
+	 */
+	public boolean isValid(int x, int y)
+	{
+		return (words[y*wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * @return true if no cell of the grid is empty.
+	 */
+	public boolean isAllValid()
+	{
+		return numValid == (long)numColumns*numRows;
+	}
+
+	/**
+	 * @return The number of cells that hold data.
+	 */
+	public long getNumValid()
+	{
+		return numValid;
+	}
+
+	/**
+	 * Tests whether every cell in a box holds data.
+	 * @param x0 - The first column of the box.
+	 * @param y0 - The first row of the box.
+	 * @param x1 - The column after the end of the box.
+	 * @param y1 - The row after the end of the box.
+	 * @return true if every cell in the box, clipped to the grid, holds data.
+	 */
+	public boolean allValid(int x0, int y0, int x1, int y1)
+	{
+		if(isAllValid())
+			return true;
+		x0 = Math.max(x0, 0);
+		y0 = Math.max(y0, 0);
+		x1 = Math.min(x1, numColumns);
+		y1 = Math.min(y1, numRows);
+		if(x0 >= x1)
+			return true;
+		int firstWord = x0 >>> 6, lastWord = (x1-1) >>> 6;
+		long firstMask = -1L << x0, lastMask = -1L >>> (63 - ((x1-1) & 63));
+		for (int y = y0; y < y1; y++)
+		{
+			int rowStart = y*wordsPerRow;
+			for (int w = firstWord; w <= lastWord; w++)
+			{
+				long mask = (w == firstWord ? firstMask : -1L) & (w == lastWord ? lastMask : -1L);
+				if((words[rowStart+w] & mask) != mask)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tests whether any cell in a box holds data.
+	 * @see #allValid(int, int, int, int)
+	 * @return true if a cell in the box, clipped to the grid, holds data.
+	 */
+	public boolean anyValid(int x0, int y0, int x1, int y1)
+	{
+		x0 = Math.max(x0, 0);
+		y0 = Math.max(y0, 0);
+		x1 = Math.min(x1, numColumns);
+		y1 = Math.min(y1, numRows);
+		if(x0 >= x1 || y0 >= y1)
+			return false;
+		if(isAllValid())
+			return true;
+		int firstWord = x0 >>> 6, lastWord = (x1-1) >>> 6;
+		long firstMask = -1L << x0, lastMask = -1L >>> (63 - ((x1-1) & 63));
+		for (int y = y0; y < y1; y++)
+		{
+			int rowStart = y*wordsPerRow;
+			for (int w = firstWord; w <= lastWord; w++)
+			{
+				long mask = (w == firstWord ? firstMask : -1L) & (w == lastWord ? lastMask : -1L);
+				if((words[rowStart+w] & mask) != 0)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * BuildTask splits the rows of a mask into bands, halving them until they are small enough
+	 * to build directly. Rows start on separate words, so bands never share a word.
+	 */
+	private static class BuildTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final ValidityMask mask;
+		private final HeightGrid grid;
+		private final float noData;
+		private final int firstRow, endRow;
+
+		BuildTask(ValidityMask mask, HeightGrid grid, float noData, int firstRow, int endRow)
+		{
+			this.mask = mask;
+			this.grid = grid;
+			this.noData = noData;
+			this.firstRow = firstRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (endRow-firstRow <= ROWS_PER_BAND)
+			{
+				mask.buildRows(grid, noData, firstRow, endRow);
+				return;
+			}
+			int midRow = (firstRow+endRow) >>> 1;
+			invokeAll(new BuildTask(mask, grid, noData, firstRow, midRow),
+					  new BuildTask(mask, grid, noData, midRow, endRow));
+		}
+	}
+}